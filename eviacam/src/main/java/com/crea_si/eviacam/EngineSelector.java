@@ -20,6 +20,7 @@ package com.crea_si.eviacam;
 
 import com.crea_si.eviacam.a11yservice.AccessibilityServiceModeEngine;
 import com.crea_si.eviacam.a11yservice.AccessibilityServiceModeEngineImpl;
+import com.crea_si.eviacam.common.Engine;
 import com.crea_si.eviacam.slavemode.SlaveModeEngine;
 import com.crea_si.eviacam.slavemode.SlaveModeEngineImpl;
 
@@ -57,6 +58,16 @@ public class EngineSelector {
         return sAccessibilityServiceModeEngine;
     }
 
+    /**
+     * Get the engine currently initialized, whatever its mode
+     *
+     * @return a reference to the engine interface or null if none
+     */
+    public static Engine getEngine() {
+        if (null != sAccessibilityServiceModeEngine) return sAccessibilityServiceModeEngine;
+        return sSlaveModeEngine;
+    }
+
     /**
      * Release accessibility service mode if previously requested
      */
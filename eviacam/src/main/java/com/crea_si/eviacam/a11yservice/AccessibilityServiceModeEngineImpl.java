@@ -98,8 +98,10 @@ public class AccessibilityServiceModeEngineImpl extends CoreEngine
     /**
      * Called for each processed camera frame
      *
-     * @param motion motion vector, could be (0, 0) if motion not detected or the engine is
-     *               paused or in standby mode
+     * @param motion motion vector (pixels per second), could be (0, 0) if motion not detected
+     *               or the engine is paused or in standby mode
+     * @param timestamp capture time of the frame (ns)
+     * @param period time elapsed since the previous frame (s)
      * @param faceDetected whether or not a face was detected for the last frame, note
      *                     not all frames are checked for the face detection algorithm
      * @param state current state of the engine
@@ -107,9 +109,10 @@ public class AccessibilityServiceModeEngineImpl extends CoreEngine
      * NOTE: called from a secondary thread
      */
     @Override
-    protected void onFrame(@NonNull PointF motion, boolean faceDetected, int state) {
+    protected void onFrame(@NonNull PointF motion, long timestamp, float period,
+                           boolean faceDetected, int state) {
         if (state == STATE_RUNNING) {
-            mMouseEmulation.processMotion(motion);
+            mMouseEmulation.processMotion(motion, period);
             mClickDispatcher.refresh();
             mMouseEmulation.setRestMode(mClickDispatcher.getRestModeEnabled());
         }
@@ -25,19 +25,20 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 import android.view.SurfaceView;
 
+import com.crea_si.eviacam.BuildConfig;
 import com.crea_si.eviacam.R;
 import com.crea_si.eviacam.common.Preferences;
+import com.crea_si.eviacam.common.StartupTimings;
 import com.crea_si.eviacam.common.VisionPipeline;
 import com.crea_si.eviacam.util.FlipDirection;
 
 import org.opencv.android.CameraException;
 import org.opencv.android.OpenCVLoader;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 
 /**
  * Camera interface class
@@ -49,6 +50,10 @@ public class Camera {
     static final int DESIRED_CAPTURE_WIDTH = 352;
     static final int DESIRED_CAPTURE_HEIGHT = 288;
 
+    /* Haar cascade cache file name: prefix + version code + suffix */
+    private static final String CASCADE_CACHE_PREFIX = "haarcascade-";
+    private static final String CASCADE_CACHE_SUFFIX = ".bin";
+
     /* Camera API */
     private static final int CAMERA_API_LEGACY = 1;
     private static final int CAMERA_API_2 = 2;
@@ -59,6 +64,12 @@ public class Camera {
     // camera 2 interface
     private Camera2Listener mCamera2;
 
+    // native vision pipeline, owned by the camera
+    private VisionPipeline mVisionPipeline;
+
+    // counters of the captured, processed and dropped frames
+    private final FrameStats mFrameStats= new FrameStats();
+
     /**
      * Constructs and detects the best camera available. Takes care of selecting the most
      * appropriate interface to acces the camera.
@@ -74,36 +85,134 @@ public class Camera {
           to missing OpenCV libraries. To avoid such problems we included the
           OpenCV binaries in the App apk
         */
+        long start= StartupTimings.now();
         if (!OpenCVLoader.initDebug()) {
             throw new RuntimeException("Cannot initialize OpenCV");
         }
+        StartupTimings.end("opencv", start);
 
         Log.i(TAG, "OpenCV loaded successfully");
 
         // initialize JNI part
+        start= StartupTimings.now();
         System.loadLibrary("visionpipeline");
+        StartupTimings.end("native library", start);
+
+        /*
+         * Loading the haar cascade is slow, as it is opening the camera.
+         * Both are independent, so the cascade is loaded on a worker thread meanwhile.
+         * The pipeline does not process frames until the camera is started.
+         */
+        mVisionPipeline= new VisionPipeline("");
+        final Context context= c;
+        final VisionPipeline pipeline= mVisionPipeline;
+        Thread cascadeLoader= new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loadCascade(context, pipeline);
+            }
+        }, "CascadeLoader");
+        cascadeLoader.start();
 
-        /* Load haarcascade from resources */
+        /*
+            Select the best API to access the camera
+        */
+        CameraException error= null;
+        start= StartupTimings.now();
         try {
-            File f= resourceToTempFile (c, R.raw.haarcascade, "xml");
-            VisionPipeline.init(f.getAbsolutePath());
+            if (whichCameraAPI()== CAMERA_API_LEGACY) {
+                mCameraLegacy = new CameraListener(c, fp, mVisionPipeline, mFrameStats,
+                        DESIRED_CAPTURE_WIDTH, DESIRED_CAPTURE_HEIGHT);
+                mCameraLegacy.setPreviewFlip(mCameraLegacy.getCameraFlip());
+            }
+            else {
+                mCamera2= new Camera2Listener(c, fp, mVisionPipeline, mFrameStats);
+            }
+            StartupTimings.end("camera open", start);
+        }
+        catch (CameraException e) {
+            error= e;
+        }
+
+        /* The pipeline cannot be used, nor freed, until the cascade has been loaded */
+        start= StartupTimings.now();
+        waitFor(cascadeLoader);
+        StartupTimings.end("cascade wait", start);
+
+        if (error != null) {
+            mVisionPipeline.cleanup();
+            mVisionPipeline= null;
+            throw error;
+        }
+    }
+
+    /**
+     * Load the haar cascade into the pipeline
+     *
+     * The first time the XML is read from the resources and parsed, and the parsed
+     * cascade is saved in a binary form which is loaded the next times (much faster)
+     */
+    private static void loadCascade(@NonNull Context c, @NonNull VisionPipeline vp) {
+        /* The cached cascade is only valid for the version of the app which wrote it */
+        File cache= new File(c.getFilesDir(),
+                CASCADE_CACHE_PREFIX + BuildConfig.VERSION_CODE + CASCADE_CACHE_SUFFIX);
+
+        long start= StartupTimings.now();
+        if (cache.exists()) {
+            if (vp.loadCascade(cache.getAbsolutePath())) {
+                StartupTimings.end("cascade cache load", start);
+                return;
+            }
+            Log.w(TAG, "Invalid haar cascade cache. Loading from resources");
             //noinspection ResultOfMethodCallIgnored
-            f.delete();
+            cache.delete();
+        }
+        deleteStaleCascadeCaches(c.getFilesDir(), cache);
+
+        start= StartupTimings.now();
+        byte[] text;
+        try {
+            text= readResource(c, R.raw.haarcascade);
         }
         catch (IOException e) {
-            Log.e(TAG, "Cannot write haar cascade temp file. Continuing anyway");
+            Log.e(TAG, "Cannot read haar cascade. Continuing anyway");
+            return;
         }
+        StartupTimings.end("cascade read", start);
 
-        /*
-            Select the best API to access the camera
-        */
-        if (whichCameraAPI()== CAMERA_API_LEGACY) {
-            mCameraLegacy = new CameraListener(c, fp, DESIRED_CAPTURE_WIDTH, DESIRED_CAPTURE_HEIGHT);
-            mCameraLegacy.setPreviewFlip(mCameraLegacy.getCameraFlip());
+        start= StartupTimings.now();
+        vp.loadCascadeText(text, cache.getAbsolutePath());
+        StartupTimings.end("cascade parse", start);
+    }
+
+    /**
+     * Remove the cascades cached by other versions of the app
+     */
+    private static void deleteStaleCascadeCaches(@NonNull File dir, @NonNull File current) {
+        File[] files= dir.listFiles();
+        if (files == null) return;
+        for (File f : files) {
+            String name= f.getName();
+            if (name.startsWith(CASCADE_CACHE_PREFIX) && !f.equals(current)) {
+                //noinspection ResultOfMethodCallIgnored
+                f.delete();
+            }
         }
-        else {
-            mCamera2= new Camera2Listener(c, fp);
+    }
+
+    /**
+     * Wait until a thread finishes, even if interrupted
+     */
+    private static void waitFor(@NonNull Thread t) {
+        boolean interrupted= false;
+        while (t.isAlive()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                interrupted= true;
+            }
         }
+        if (interrupted) Thread.currentThread().interrupt();
     }
 
     /**
@@ -154,7 +263,10 @@ public class Camera {
         }
 
         // finish JNI part
-        VisionPipeline.cleanup();
+        if (null != mVisionPipeline) {
+            mVisionPipeline.cleanup();
+            mVisionPipeline= null;
+        }
 
         Log.d(TAG, "cleanup: completed");
     }
@@ -181,6 +293,22 @@ public class Camera {
         return 0;
     }
 
+    /**
+     * Get the vision pipeline which processes the frames of this camera
+     * @return pipeline or null after cleanup
+     */
+    public @Nullable VisionPipeline getVisionPipeline() {
+        return mVisionPipeline;
+    }
+
+    /**
+     * Get the counters of the captured, processed and dropped frames
+     * @return counters, valid also after cleanup
+     */
+    public @NonNull FrameStats getFrameStats() {
+        return mFrameStats;
+    }
+
     /**
      * Sets the rotation to perform to the camera image before is displayed
      * in the preview surface
@@ -196,6 +324,28 @@ public class Camera {
         }
     }
 
+    /**
+     * Limit the frame rate of the preview. Frames are still processed at full rate.
+     * Only available for the camera2 API, ignored otherwise.
+     *
+     * @param fps max frames per second, 0 or less means no limit
+     */
+    public void setPreviewMaxFrameRate (float fps) {
+        if (null != mCamera2) mCamera2.setPreviewMaxFrameRate(fps);
+    }
+
+    /**
+     * Switch between the normal and a lower capture frame rate, to save
+     * power while the user is idle. Ignored when the camera offers no
+     * lower frame rate.
+     *
+     * @param idle true to select the lower frame rate
+     */
+    public void setIdleFrameRate (boolean idle) {
+        if (null != mCameraLegacy) mCameraLegacy.setIdleFrameRate(idle);
+        else if (null != mCamera2) mCamera2.setIdleFrameRate(idle);
+    }
+
     /**
      * Start camera capture
      *
@@ -223,6 +373,21 @@ public class Camera {
         }
     }
 
+    /**
+     * Stop the camera capture but keep it ready to be started again quickly
+     * (e.g. when the screen is switched off for a while).
+     *
+     * For the camera2 API the device and the capture session are kept and only the
+     * repeating request is stopped. The legacy camera is stopped as usual.
+     */
+    public void stopCameraWarm() {
+        if (null != mCameraLegacy) mCameraLegacy.stopCamera();
+        else if (null != mCamera2) mCamera2.stopCamera(true);
+        else {
+            throw new IllegalStateException("stopCameraWarm: Camera no initialized");
+        }
+    }
+
     /**
      * Return surface view on which camera image will be drawn
      *
@@ -235,52 +400,31 @@ public class Camera {
     }
 
     /**
-     * Load a resource into a temporary file
+     * Read a raw resource into memory
      *
      * @param c - context
      * @param rid - resource id
-     * @param suffix - extension of the temporary file
-     * @return a File object representing the temporary file
+     * @return contents of the resource
      * @throws IOException when failed
      */
-    private static File resourceToTempFile (Context c, int rid, String suffix)
-            throws IOException {
-        InputStream is;
-        OutputStream os= null;
-        File outFile = null;
-
-        is= c.getResources().openRawResource(rid);
+    private static byte[] readResource (Context c, int rid) throws IOException {
+        InputStream is= c.getResources().openRawResource(rid);
         try {
-            outFile = File.createTempFile("tmp", suffix, c.getCacheDir());
-            os= new FileOutputStream(outFile);
-            byte[] buffer = new byte[1024];
+            ByteArrayOutputStream os= new ByteArrayOutputStream(Math.max(is.available(), 1024));
+            byte[] buffer = new byte[16 * 1024];
             int bytesRead;
             while ((bytesRead = is.read(buffer)) != -1) {
                 os.write(buffer, 0, bytesRead);
             }
-        } catch (IOException e) {
-            if (outFile != null) {
-                //noinspection ResultOfMethodCallIgnored
-                outFile.delete();
-                outFile= null;
-            }
-            throw e;
+            return os.toByteArray();
         }
         finally {
             try {
-                if (is != null) is.close();
-            }
-            catch (IOException e) {
-                // Do nothing
-            }
-            try {
-                if (os != null) os.close();
+                is.close();
             }
             catch (IOException e) {
                 // Do nothing
             }
         }
-
-        return outFile;
     }
 }
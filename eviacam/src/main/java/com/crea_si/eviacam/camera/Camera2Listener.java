@@ -19,7 +19,6 @@
 
 package com.crea_si.eviacam.camera;
 
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.concurrent.Semaphore;
@@ -27,20 +26,11 @@ import java.util.concurrent.TimeUnit;
 
 import org.acra.ACRA;
 import org.opencv.android.CameraException;
-import org.opencv.android.FpsMeter;
 import org.opencv.android.MyCameraBridgeViewBase;
-import org.opencv.android.Utils;
-import org.opencv.core.CvType;
-import org.opencv.core.Mat;
-import org.opencv.imgproc.Imgproc;
 
 import android.annotation.TargetApi;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
 import android.graphics.ImageFormat;
-import android.graphics.Matrix;
-import android.graphics.Rect;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
@@ -55,6 +45,7 @@ import android.media.Image;
 import android.media.ImageReader;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.util.Log;
 import android.util.Range;
@@ -68,6 +59,7 @@ import com.android.ex.camera2.blocking.BlockingStateCallback;
 import com.android.ex.camera2.exceptions.TimeoutRuntimeException;
 import com.crea_si.eviacam.BuildConfig;
 import com.crea_si.eviacam.R;
+import com.crea_si.eviacam.common.VisionPipeline;
 import com.crea_si.eviacam.util.FlipDirection;
 
 /**
@@ -91,11 +83,6 @@ class Camera2Listener {
         return mCamera2View;
     }
 
-    // stores whether is supposed that the surface is ready to draw on it
-    // note that this information is not authoritative, it just reflects
-    // when is supposed that the camera is processing frames
-    private boolean mSurfaceReady= false;
-
     /*
        Physical mounting rotation of the camera (i.e. whether the frame needs a flip
        operation). For instance, this is needed for those devices with rotating
@@ -108,18 +95,43 @@ class Camera2Listener {
     private int mCameraOrientation;
     int getCameraOrientation() { return mCameraOrientation; }
 
-    // store the rotation needed to draw the picture in upwards position
-    private int mPreviewRotation= 0;
-
     // capture size
     private Size mCaptureSize;
 
     // selected capture FPS range
     private Range<Integer> mTargetFPSRange;
 
+    // capture FPS range when idle, null if there is no lower range
+    private Range<Integer> mIdleFPSRange;
+
+    // lowest frame rate accepted when idle
+    private static final int IDLE_MIN_FPS = 8;
+
+    /*
+     * Guards mIdle, mRepeating and the calls that start or stop the repeating request,
+     * which are issued from the main thread (start/stop) and from the capture thread
+     * (setIdleFrameRate). Never held while waiting for the camera.
+     */
+    private final Object mRequestLock= new Object();
+
+    // whether the idle FPS range is in use
+    private boolean mIdle;
+
+    // request of the capture session (to change the FPS range and to resume the capture)
+    private CaptureRequest.Builder mPreviewRequestBuilder;
+
+    // whether the repeating request is running, false while the session is kept stopped
+    private boolean mRepeating;
+
     // captured frames count for debugging purposes
     private int mCapturedFrames;
 
+    // frame counters
+    private final FrameStats mFrameStats;
+
+    // whether the timestamps of the images come from SystemClock.elapsedRealtimeNanos
+    private boolean mRealtimeTimestamps;
+
     // camera device, null when the camera is closed
     private CameraDevice mCameraDevice;
 
@@ -137,22 +149,26 @@ class Camera2Listener {
     private Semaphore mCameraCloseLock;
 
     // A {@link Semaphore} to prevent stopCamera from exiting before stopping the camera.
-    private Semaphore mCameraStopLock;
+    private volatile Semaphore mCameraStopLock;
 
-    /* Cached images */
-    private Mat mCacheImage;
-    private Bitmap mCacheBitmap;
+    /* Draws the preview on its own thread */
+    private PreviewRenderer mPreviewRenderer;
 
-    private FpsMeter mFpsMeter = null;
+    /* Default max frame rate of the preview, see Camera.setPreviewMaxFrameRate */
+    private static final float PREVIEW_MAX_FPS = 10.0f;
 
     /**
      * Constructor
      * @param c context
      * @param fp object that will receive the camera callbacks
+     * @param vp pipeline used to draw the feedback on the preview
+     * @param stats counters of the captured, processed and dropped frames
      */
-    Camera2Listener(@NonNull Context c, @NonNull FrameProcessor fp) throws CameraException {
+    Camera2Listener(@NonNull Context c, @NonNull FrameProcessor fp,
+                    @NonNull VisionPipeline vp, @NonNull FrameStats stats) throws CameraException {
         mContext= c;
         mFrameProcessor= fp;
+        mFrameStats= stats;
 
         // Pick best camera and get capture parameters
         String cameraId = setUpCameraParameters();
@@ -163,16 +179,10 @@ class Camera2Listener {
         // View for drawing camera output
         mCamera2View= new SurfaceView(mContext);
 
-        mCacheBitmap = Bitmap.createBitmap(mCaptureSize.getWidth(), mCaptureSize.getHeight(),
-                Bitmap.Config.ARGB_8888);
-
-        mCacheImage= new Mat(mCaptureSize.getWidth(), mCaptureSize.getHeight(), CvType.CV_8UC4);
-
-        /* Uncomment to enable the FPS meter for debugging */
-        if (BuildConfig.DEBUG) {
-            mFpsMeter = new FpsMeter();
-            mFpsMeter.setResolution(mCaptureSize.getWidth(), mCaptureSize.getHeight());
-        }
+        /* The preview is drawn on a separate thread so that tracking is not delayed */
+        mPreviewRenderer= new PreviewRenderer(mCamera2View,
+                mCaptureSize.getWidth(), mCaptureSize.getHeight(), mCameraFlip, vp);
+        mPreviewRenderer.setMaxFrameRate(PREVIEW_MAX_FPS);
 
         openCamera(cameraId);
     }
@@ -299,6 +309,16 @@ class Camera2Listener {
             Log.i(TAG, "Camera orientation: " + mCameraOrientation);
         }
 
+        /*
+         * The age of the frames can only be computed when the sensor timestamps
+         * share the time base of SystemClock.elapsedRealtimeNanos
+         */
+        Integer timestampSource=
+                cameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        mRealtimeTimestamps= (timestampSource != null && timestampSource ==
+                CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME);
+        Log.i(TAG, "Realtime timestamps: " + mRealtimeTimestamps);
+
         /*
          * Select the best camera preview size
          */
@@ -380,6 +400,19 @@ class Camera2Listener {
                 winner= i;
             }
             mTargetFPSRange= cameraTargetFPSRanges[winner];
+
+            /* For idle periods, the lowest maximum rate (then the highest minimum) */
+            for (Range<Integer> r : cameraTargetFPSRanges) {
+                if (r.getUpper()< IDLE_MIN_FPS || r.getUpper()>= mTargetFPSRange.getUpper()) {
+                    continue;
+                }
+                if (mIdleFPSRange == null || r.getUpper()< mIdleFPSRange.getUpper() ||
+                        (r.getUpper().equals(mIdleFPSRange.getUpper()) &&
+                         r.getLower()> mIdleFPSRange.getLower())) {
+                    mIdleFPSRange= r;
+                }
+            }
+            Log.i(TAG, "Idle FPS range: " + mIdleFPSRange);
         }
 
         return cameraId;
@@ -515,12 +548,18 @@ class Camera2Listener {
 
             mCaptureSession= null;
             mImageReader= null;
+            synchronized (mRequestLock) {
+                mRepeating= false;
+            }
         }
     }
 
     /**
      * Start camera capture
      *
+     * When the capture session has been kept (see stopCamera) only the repeating request
+     * is submitted again, which takes a few milliseconds instead of configuring a new session.
+     *
      * Once started, the client is notified using the onCameraStarted callback. When
      * error, the onCameraError is called.
      */
@@ -531,9 +570,9 @@ class Camera2Listener {
         }
 
         try {
-            createCaptureSession();
+            if (!resumeCaptureSession()) createCaptureSession();
 
-            mSurfaceReady= true;
+            mPreviewRenderer.setEnabled(true);
 
             /* TODO: wait until the camera actually starts capturing frames */
             mHandler.post(new Runnable() {
@@ -594,9 +633,14 @@ class Camera2Listener {
             // previewRequestBuilder.set(CaptureRequest.LENS_FOCUS_DISTANCE, 20.0f);
             // Finally, we start displaying the camera preview.
 
-            mCaptureSession.setRepeatingRequest(previewRequestBuilder.build(),
-                    mCaptureCallback, mBackgroundHandler);
-            Log.d(TAG, "setRepeatingRequest done");
+            synchronized (mRequestLock) {
+                mCaptureSession.setRepeatingRequest(previewRequestBuilder.build(),
+                        mCaptureCallback, mBackgroundHandler);
+                Log.d(TAG, "setRepeatingRequest done");
+                mPreviewRequestBuilder= previewRequestBuilder;
+                mIdle= false;
+                mRepeating= true;
+            }
         } catch (CameraAccessException|TimeoutRuntimeException e) {
             Log.e(TAG, "createCaptureSession failed: " + e.getLocalizedMessage());
             if (mCaptureSession!= null) {
@@ -606,26 +650,109 @@ class Camera2Listener {
 
             mImageReader.close();
             mImageReader= null;
+            synchronized (mRequestLock) {
+                mRepeating= false;
+            }
 
             throw e;
         }
     }
 
+    /**
+     * Submit again the repeating request of the session kept by stopCamera
+     *
+     * @return false when there is no session to resume, a new one needs to be created
+     */
+    private boolean resumeCaptureSession () {
+        CameraCaptureSession session= mCaptureSession;
+        CaptureRequest.Builder builder= mPreviewRequestBuilder;
+        if (session == null || builder == null || mImageReader == null) return false;
+
+        synchronized (mRequestLock) {
+            if (mRepeating) return true;
+
+            /* Start at the normal frame rate */
+            if (null != mTargetFPSRange) {
+                builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mTargetFPSRange);
+            }
+            mIdle= false;
+
+            try {
+                session.setRepeatingRequest(builder.build(), mCaptureCallback,
+                        mBackgroundHandler);
+                mRepeating= true;
+                Log.d(TAG, "resumeCaptureSession done");
+                return true;
+            } catch (CameraAccessException|IllegalStateException e) {
+                /* The session has been closed meanwhile (e.g. the camera was taken by
+                   another application while stopped), start from scratch */
+                Log.w(TAG, "Cannot resume the capture session: " + e.getMessage());
+            }
+        }
+
+        /* Outside mRequestLock, stopCamera takes the locks in the opposite order */
+        synchronized (this) {
+            closeCaptureSession();
+        }
+        return false;
+    }
+
+    /**
+     * Close the capture session and the image reader (if any)
+     *
+     * @return true if something has been closed
+     */
+    private boolean closeCaptureSession () {
+        boolean closed= false;
+
+        if (null != mCaptureSession) {
+            closed= true;
+            mCaptureSession.close();
+            mCaptureSession = null;
+            mPreviewRequestBuilder= null;
+        }
+
+        if (null != mImageReader) {
+            closed= true;
+            mImageReader.close();
+            mImageReader= null;
+        }
+
+        return closed;
+    }
+
     /* Listener that gets called when a new image is available */
     private final ImageReader.OnImageAvailableListener mOnImageAvailableListener=
             new ImageReader.OnImageAvailableListener() {
         @Override
         public void onImageAvailable(ImageReader reader) {
             if (BuildConfig.DEBUG) Log.d(TAG,"onImageAvailable");
-            Image image;
 
+            /*
+             * Latest-only policy: if processing is slower than the capture several images
+             * could be queued, take the most recent one and drop the older ones, as only the
+             * current position of the face matters. At most two images are held at once
+             * (the reader allows 2) as the older one is closed as soon as the next arrives.
+             */
+            Image image= null;
             try {
-                image = reader.acquireLatestImage();
-                if(image == null) {
-                    Log.d(TAG,"onImageAvailable: null image");
-                    return;
+                Image next;
+                while ((next= reader.acquireNextImage()) != null) {
+                    if (image != null) {
+                        image.close();
+                        mFrameStats.frameDropped();
+                    }
+                    image= next;
                 }
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Cannot acquire image: " + e.getMessage());
+            }
+            if (image == null) {
+                Log.d(TAG,"onImageAvailable: null image");
+                return;
+            }
 
+            try {
                 /* Informative log for debugging purposes */
                 mCapturedFrames++;
                 if (mCapturedFrames < 100) {
@@ -634,21 +761,18 @@ class Camera2Listener {
                     }
                 }
 
-                Mat yuv= imageToMat(image);
-                Imgproc.cvtColor(yuv, mCacheImage, Imgproc.COLOR_YUV2BGRA_YV12);
+                mFrameStats.frameProcessed(mRealtimeTimestamps?
+                        SystemClock.elapsedRealtimeNanos() - image.getTimestamp() : -1);
 
-                mFrameProcessor.processFrame(mCacheImage);
+                /* Track using the luma plane in place: no copy nor color conversion */
+                Image.Plane lumaPlane= image.getPlanes()[0];
+                mFrameProcessor.processFrame(lumaPlane.getBuffer(),
+                        image.getWidth(), image.getHeight(), lumaPlane.getRowStride(),
+                        image.getTimestamp());
 
-                Utils.matToBitmap(mCacheImage, mCacheBitmap);
-
-                synchronized (this) {
-                    if (mSurfaceReady) {
-                        Canvas canvas = mCamera2View.getHolder().lockCanvas();
-                        if (canvas != null) {
-                            drawBitmap(canvas);
-                            mCamera2View.getHolder().unlockCanvasAndPost(canvas);
-                        }
-                    }
+                /* Hand a copy of the frame to the render stage only when needed */
+                if (mPreviewRenderer.needsFrame()) {
+                    mPreviewRenderer.submitFrame(image);
                 }
 
                 if (BuildConfig.DEBUG) {
@@ -659,15 +783,10 @@ class Camera2Listener {
                         Log.d(TAG, plane.toString());
                     }
                     Log.d(TAG, "Crop rectangle: " + image.getCropRect().toString());
-                    Log.d(TAG, "Mat type: " + yuv);
-                    Log.d(TAG, "Bitmap type: " + mCacheBitmap.getWidth() + "*" +
-                            mCacheBitmap.getHeight());
                 }
-            } catch (IllegalStateException e) {
-                Log.w(TAG, "Too many images queued, dropping image");
-                return;
+            } finally {
+                image.close();
             }
-            image.close();
         }
     };
 
@@ -715,75 +834,25 @@ class Camera2Listener {
                 }
             });
 
-    // Cached bitmap to avoid the allocation cost for each frame
-    private Matrix mMatrixCached = new Matrix();
-
     /**
-     * Draw image stored in mCachedBitmap to the canvas
-     * @param canvas a canvas reference
+     * Stop the camera capture, releasing the capture session
+     *
+     * This method does not return until the capture has completely stop.
      */
-    private void drawBitmap(Canvas canvas) {
-        /* Canvas size */
-        final int canvasWidth= canvas.getWidth();
-        final int canvasHeight= canvas.getHeight();
-        if (0>= canvasWidth || 0>= canvasHeight) return;
-
-        /* Bitmap (captured image) size */
-        final int bitmapWidth= mCacheBitmap.getWidth();
-        final int bitmapHeight= mCacheBitmap.getHeight();
-
-        /*
-         * Set rotation matrix
-         */
-        mMatrixCached.reset();
-
-        if (mCameraFlip== FlipDirection.HORIZONTAL) {
-            mMatrixCached.postScale(-1.0f, 1.0f);
-            mMatrixCached.postTranslate(canvasWidth, 0.0f);
-        }
-        else if (mCameraFlip== FlipDirection.VERTICAL) {
-            mMatrixCached.postScale(1.0f, -1.0f);
-            mMatrixCached.postTranslate(0.0f, canvasHeight);
-        }
-        mMatrixCached.postRotate((float) mPreviewRotation, canvasWidth / 2, canvasHeight / 2);
-        canvas.setMatrix(mMatrixCached);
-
-        canvas.drawColor(0, android.graphics.PorterDuff.Mode.CLEAR);
-
-        if (canvasWidth!= bitmapWidth || canvasHeight != bitmapHeight) {
-            // Need to scale captured image to draw
-            float scale = Math.min((float) canvasHeight / (float) bitmapHeight,
-                                   (float) canvasWidth / (float) bitmapWidth);
-
-            canvas.drawBitmap(mCacheBitmap,
-                    new Rect(0, 0, bitmapWidth, bitmapHeight),
-                    new Rect((int)((canvasWidth - scale * bitmapWidth) / 2),
-                            (int)((canvasHeight - scale * bitmapHeight) / 2),
-                            (int)((canvasWidth - scale * bitmapWidth) / 2 + scale * bitmapWidth),
-                            (int)((canvasHeight - scale * bitmapHeight) / 2 + scale * bitmapHeight)),
-                    null);
-        } else {
-            canvas.drawBitmap(mCacheBitmap,
-                    new Rect(0, 0, bitmapWidth, bitmapHeight),
-                    new Rect((canvasWidth - bitmapWidth) / 2,
-                            (canvasHeight - bitmapHeight) / 2,
-                            (canvasWidth - bitmapWidth) / 2 + bitmapWidth,
-                            (canvasHeight - bitmapHeight) / 2 + bitmapHeight), null);
-        }
-
-        if (mFpsMeter != null) {
-            mFpsMeter.measure();
-            mFpsMeter.draw(canvas, 20, 30);
-        }
+    void stopCamera() {
+        stopCamera(false);
     }
 
-
     /**
      * Stop the camera capture.
      *
      * This method does not return until the capture has completely stop.
+     *
+     * @param keepSession when true only the repeating request is stopped, the capture
+     *                    session and the image reader are kept so that startCamera
+     *                    resumes the capture at once (warm stop)
      */
-    void stopCamera() {
+    void stopCamera(boolean keepSession) {
         if (mCameraDevice == null) {
             Log.w(TAG, "Trying to stop closed camera");
             return;
@@ -791,32 +860,47 @@ class Camera2Listener {
         Log.d(TAG, "stopCamera: enter");
 
         boolean wasRunning= false;  // avoid multiple callback notifications
+        /* Wait until the frame being drawn (if any) has been completed */
+        mPreviewRenderer.setEnabled(false);
+
         synchronized (this) {
-            mSurfaceReady = false;
 
-            if (null != mCaptureSession) {
-                wasRunning= true;
-                /* As stopRepeating is asynchronous use a semaphore
-                   to lock until the operation completes */
-                mCameraStopLock = new Semaphore(0);
+            /* Clear the flag and stop the request atomically so that setIdleFrameRate,
+               which checks the flag under the same lock, cannot restart the capture */
+            boolean stopping= false;
+            synchronized (mRequestLock) {
+                if (null != mCaptureSession && mRepeating) {
+                    wasRunning= true;
+                    mRepeating= false;
+                    /* As stopRepeating is asynchronous use a semaphore
+                       to lock until the operation completes */
+                    mCameraStopLock = new Semaphore(0);
+                    try {
+                        mCaptureSession.stopRepeating();
+                        stopping= true;
+                    } catch (CameraAccessException|IllegalStateException e) {
+                        // Ignore errors when stopping camera
+                        Log.e(TAG, e.getLocalizedMessage());
+                        ACRA.getErrorReporter().handleSilentException(e);
+                        // the session is probably unusable
+                        keepSession= false;
+                    }
+                }
+            }
+
+            /* Wait without mRequestLock, the capture thread may need it meanwhile */
+            if (stopping) {
                 try {
-                    mCaptureSession.stopRepeating();
                     mCameraStopLock.tryAcquire(2500, TimeUnit.MILLISECONDS);
-                } catch (InterruptedException|CameraAccessException e) {
-                    // Ignore errors when stopping camera
+                } catch (InterruptedException e) {
                     Log.e(TAG, e.getLocalizedMessage());
                     ACRA.getErrorReporter().handleSilentException(e);
+                    keepSession= false;
                 }
-                mCameraStopLock= null;
-                mCaptureSession.close();
-                mCaptureSession = null;
             }
+            mCameraStopLock= null;
 
-            if (null != mImageReader) {
-                wasRunning= true;
-                mImageReader.close();
-                mImageReader= null;
-            }
+            if (!keepSession && closeCaptureSession()) wasRunning= true;
         }
 
         /* Notify client (although is not necessary because the operation is synchronous) */
@@ -825,6 +909,7 @@ class Camera2Listener {
                 @Override
                 public void run() {
                     Log.d(TAG, "Notify: onCameraStopped");
+                    Log.i(TAG, "Frame stats:\n" + mFrameStats.format());
                     mFrameProcessor.onCameraStopped();
                 }
             });
@@ -841,7 +926,43 @@ class Camera2Listener {
      *                 legal values: 0, 90, 180, or 270
      */
     void setPreviewRotation (int rotation) {
-        mPreviewRotation= rotation;
+        mPreviewRenderer.setPreviewRotation(rotation);
+    }
+
+    /**
+     * Switch between the normal and a lower capture frame rate
+     *
+     * @param idle true to select the lower frame rate
+     */
+    void setIdleFrameRate (boolean idle) {
+        /* Called from the capture thread. Only mRequestLock is taken, stopCamera holds
+           the instance lock while waiting for this thread. The request is only replaced
+           while the capture runs, a session closed meanwhile just throws */
+        synchronized (mRequestLock) {
+            CameraCaptureSession session= mCaptureSession;
+            CaptureRequest.Builder builder= mPreviewRequestBuilder;
+            if (session == null || builder == null || mIdleFPSRange == null || idle == mIdle ||
+                    !mRepeating) return;
+
+            builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE,
+                    idle? mIdleFPSRange : mTargetFPSRange);
+            try {
+                session.setRepeatingRequest(builder.build(), mCaptureCallback,
+                        mBackgroundHandler);
+                mIdle= idle;
+            } catch (CameraAccessException|IllegalStateException e) {
+                Log.w(TAG, "Cannot change the capture frame rate: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Limit the frame rate of the preview. Tracking is not affected.
+     *
+     * @param fps max frames per second, 0 or less means no limit
+     */
+    void setPreviewMaxFrameRate (float fps) {
+        mPreviewRenderer.setMaxFrameRate(fps);
     }
 
     /**
@@ -854,14 +975,9 @@ class Camera2Listener {
 
         stopCameraThread();
 
-        if (mCacheBitmap != null) {
-            mCacheBitmap.recycle();
-            mCacheBitmap= null;
-        }
-
-        if (mCacheImage != null) {
-            mCacheImage.release();
-            mCacheImage= null;
+        if (mPreviewRenderer != null) {
+            mPreviewRenderer.cleanup();
+            mPreviewRenderer= null;
         }
     }
 
@@ -874,6 +990,7 @@ class Camera2Listener {
                                      long timestamp, long frameNumber) {
             if (BuildConfig.DEBUG)
                 Log.d(TAG, "CameraCaptureSession.CaptureCallback: onCaptureStarted");
+            mFrameStats.frameCaptured();
         }
 
         @Override
@@ -890,65 +1007,19 @@ class Camera2Listener {
                                     @NonNull CaptureFailure failure) {
             if (BuildConfig.DEBUG)
                 Log.d(TAG, "CameraCaptureSession.CaptureCallback: onCaptureFailed");
+            if (!failure.wasImageCaptured()) mFrameStats.frameDropped();
         }
-    };
 
-    // TODO: provide a better implementation
-    static private Mat imageToMat(Image image) {
-        ByteBuffer buffer;
-        int rowStride;
-        int pixelStride;
-        int width = image.getWidth();
-        int height = image.getHeight();
-        int offset = 0;
-
-        Image.Plane[] planes = image.getPlanes();
-        byte[] data = new byte[image.getWidth() * image.getHeight() * 3 /2];// ImageFormat.getBitsPerPixel(ImageFormat.YUV_420_888) / 8];
-        byte[] rowData = new byte[planes[0].getRowStride()];
-
-        for (int i = 0; i < planes.length; i++) {
-            buffer = planes[i].getBuffer();
-            rowStride = planes[i].getRowStride();
-            pixelStride = planes[i].getPixelStride();
-            int w = (i == 0) ? width : width / 2;
-            int h = (i == 0) ? height : height / 2;
-            for (int row = 0; row < h; row++) {
-                int bytesPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.YUV_420_888) / 8;
-                if (pixelStride == bytesPerPixel) {
-                    int length = w * bytesPerPixel;
-                    buffer.get(data, offset, length);
-
-                    // Advance buffer the remainder of the row stride, unless on the last row.
-                    // Otherwise, this will throw an IllegalArgumentException because the buffer
-                    // doesn't include the last padding.
-                    if (h - row != 1) {
-                        buffer.position(buffer.position() + rowStride - length);
-                    }
-                    offset += length;
-                } else {
-
-                    // On the last row only read the width of the image minus the pixel stride
-                    // plus one. Otherwise, this will throw a BufferUnderflowException because the
-                    // buffer doesn't include the last padding.
-                    if (h - row == 1) {
-                        buffer.get(rowData, 0, width - pixelStride + 1);
-                    } else {
-                        buffer.get(rowData, 0, rowStride);
-                    }
-
-                    for (int col = 0; col < w; col++) {
-                        data[offset++] = rowData[col * pixelStride];
-                    }
-                }
-            }
+        /* Only called from API 24 on, e.g. when the image reader has no free buffers */
+        @Override
+        public void onCaptureBufferLost(@NonNull CameraCaptureSession session,
+                                        @NonNull CaptureRequest request,
+                                        @NonNull Surface target, long frameNumber) {
+            if (BuildConfig.DEBUG)
+                Log.d(TAG, "CameraCaptureSession.CaptureCallback: onCaptureBufferLost");
+            mFrameStats.frameDropped();
         }
-
-        // Finally, create the Mat.
-        Mat mat = new Mat(height + height / 2, width, CvType.CV_8UC1);
-        mat.put(0, 0, data);
-
-        return mat;
-    }
+    };
 
     /**
      * Translate a CameraAccessException into a CameraException and throw it
@@ -35,6 +35,7 @@ import android.util.Log;
 import android.view.SurfaceView;
 
 import com.crea_si.eviacam.common.EVIACAM;
+import com.crea_si.eviacam.common.VisionPipeline;
 import com.crea_si.eviacam.R;
 import com.crea_si.eviacam.util.FlipDirection;
 
@@ -66,15 +67,26 @@ class CameraListener implements CvCameraViewListener2 {
     // captured frames count
     private int mCapuredFrames;
 
+    // pipeline that draws the feedback on the preview
+    private final VisionPipeline mVisionPipeline;
+
+    // frame counters
+    private final FrameStats mFrameStats;
+
     /**
      * Constructor
      * @param c context
      * @param fp object that will receive the camera callbacks
+     * @param vp pipeline used to draw the feedback on the preview
+     * @param stats counters of the captured, processed and dropped frames
      */
     @SuppressWarnings("deprecation")
-    CameraListener(@NonNull Context c, @NonNull FrameProcessor fp,
-                   int desiredCaptureWidth, int desiredCaptureHeight) throws CameraException {
+    CameraListener(@NonNull Context c, @NonNull FrameProcessor fp, @NonNull VisionPipeline vp,
+                   @NonNull FrameStats stats, int desiredCaptureWidth, int desiredCaptureHeight)
+            throws CameraException {
         mFrameProcessor= fp;
+        mVisionPipeline= vp;
+        mFrameStats= stats;
 
         /*
          * For some devices, notably the Lenovo YT3-X50L, have only one camera that can
@@ -134,7 +146,9 @@ class CameraListener implements CvCameraViewListener2 {
          * Create a capture view which carries the responsibilities of
          * capturing and displaying frames.
          */
-        mCameraView= new MyJavaCameraView(c, cameraId);
+        MyJavaCameraView cameraView= new MyJavaCameraView(c, cameraId);
+        cameraView.setFrameStats(stats);
+        mCameraView= cameraView;
 
         mCameraView.setCvCameraViewListener(this);
 
@@ -199,6 +213,15 @@ class CameraListener implements CvCameraViewListener2 {
         mCameraView.setPreviewRotation(rotation);
     }
 
+    /**
+     * Switch between the normal and a lower capture frame rate
+     *
+     * @param idle true to select the lower frame rate
+     */
+    void setIdleFrameRate(boolean idle) {
+        mCameraView.setIdleFrameRate(idle);
+    }
+
     @Override
     public void onCameraViewStarted(int width, int height) {
         Log.i(EVIACAM.TAG, "onCameraViewStarted");
@@ -208,6 +231,7 @@ class CameraListener implements CvCameraViewListener2 {
     @Override
     public void onCameraViewStopped() {
         Log.i(EVIACAM.TAG, "onCameraViewStopped. Frame count:" + mCapuredFrames);
+        Log.i(EVIACAM.TAG, "Frame stats:\n" + mFrameStats.format());
 
         mFrameProcessor.onCameraStopped();
     }
@@ -230,10 +254,18 @@ class CameraListener implements CvCameraViewListener2 {
             }
         }
 
+        /* Track using the luma plane of the frame (no color conversion).
+           The legacy API does not provide the capture time, use the reception time */
+        long timestamp= inputFrame.timestamp();
+        mFrameStats.frameProcessed(System.nanoTime() - timestamp);
+        mFrameProcessor.processFrame(inputFrame.gray(), timestamp);
+
+        /* Convert to RGBA only when the preview needs to be drawn */
+        if (!mCameraView.getUpdateViewer()) return null;
+
         Mat rgba = inputFrame.rgba();
-        
-        mFrameProcessor.processFrame(rgba);
-        
+        mVisionPipeline.drawFeedback(rgba.getNativeObjAddr());
+
         return rgba;
     }
 
@@ -24,15 +24,29 @@ import android.support.annotation.Nullable;
 
 import org.opencv.core.Mat;
 
+import java.nio.ByteBuffer;
+
 /**
  * Interface to implement a callback each time a camera frame is captured
  */
 public interface FrameProcessor {
     /**
      * Process a captured frame
-     * @param rgba captured frame
+     * @param gray luma (single channel) plane of the captured frame
+     * @param timestamp capture time of the frame (ns, monotonic, arbitrary origin)
+     */
+    void processFrame(@NonNull Mat gray, long timestamp);
+
+    /**
+     * Process the luma plane of a captured frame
+     * @param luma direct buffer with the luma (Y) plane, only valid during the call
+     * @param width width of the frame
+     * @param height height of the frame
+     * @param rowStride distance in bytes between two consecutive rows
+     * @param timestamp capture time of the frame (ns, monotonic, arbitrary origin)
      */
-    void processFrame(@NonNull Mat rgba);
+    void processFrame(@NonNull ByteBuffer luma, int width, int height, int rowStride,
+                      long timestamp);
 
     /**
      * Called when the camera is started
@@ -0,0 +1,125 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.crea_si.eviacam.camera;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Counters of the frames that go through the camera, for diagnostics. The engine exposes
+ * the counters of its camera (see Engine.getFrameStats)
+ *
+ * Both camera interfaces follow a latest-only policy: when a frame arrives while
+ * another one is still waiting to be processed, the waiting one is dropped since
+ * only the most recent position of the face matters to move the pointer. Thus
+ *
+ *   captured = processed + dropped (+ the frame being processed, if any)
+ *
+ * except for the frames the camera loses without notice, if any.
+ *
+ * The queue age is the time elapsed since a frame was captured (or received,
+ * when the capture time is not available) until it is handed to the processor.
+ * Many drops point to slow processing, whereas a high queue age without drops
+ * points to a delay before the frame reaches the application.
+ *
+ * Counters can be updated and read from any thread.
+ */
+public class FrameStats {
+    private long mCaptured;
+    private long mProcessed;
+    private long mDropped;
+
+    // queue age (ns) of the processed frames with known age
+    private long mAgeCount;
+    private long mAgeTotal;
+    private long mAgeMax;
+
+    FrameStats() { }
+
+    /**
+     * A frame has been captured
+     */
+    public synchronized void frameCaptured() {
+        mCaptured++;
+    }
+
+    /**
+     * A frame has been discarded without being processed
+     */
+    public synchronized void frameDropped() {
+        mDropped++;
+    }
+
+    /**
+     * A frame is about to be processed
+     *
+     * @param queueAge time (ns) since the frame was captured, negative when unknown
+     */
+    public synchronized void frameProcessed(long queueAge) {
+        mProcessed++;
+        if (queueAge< 0) return;
+        mAgeCount++;
+        mAgeTotal+= queueAge;
+        if (queueAge> mAgeMax) mAgeMax= queueAge;
+    }
+
+    public synchronized long getCaptured() {
+        return mCaptured;
+    }
+
+    public synchronized long getProcessed() {
+        return mProcessed;
+    }
+
+    public synchronized long getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * @return average queue age (ms), 0 if unknown
+     */
+    public synchronized float getAverageQueueAge() {
+        return (mAgeCount == 0? 0 : mAgeTotal / (float) mAgeCount / 1000000.0f);
+    }
+
+    /**
+     * @return max queue age (ms), 0 if unknown
+     */
+    public synchronized float getMaxQueueAge() {
+        return mAgeMax / 1000000.0f;
+    }
+
+    /**
+     * @return one line per counter
+     */
+    @NonNull
+    public synchronized String format() {
+        StringBuilder sb= new StringBuilder();
+        sb.append("captured: ").append(mCaptured).append("\n");
+        sb.append("processed: ").append(mProcessed).append("\n");
+        sb.append("dropped: ").append(mDropped).append("\n");
+        if (mAgeCount> 0) {
+            sb.append("queue age avg (ms): ").append(mAgeTotal / mAgeCount / 1000000L).append("\n");
+            sb.append("queue age max (ms): ").append(mAgeMax / 1000000L).append("\n");
+        }
+        else sb.append("queue age: unknown\n");
+
+        return sb.toString();
+    }
+}
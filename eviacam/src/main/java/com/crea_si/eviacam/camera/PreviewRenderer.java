@@ -0,0 +1,414 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015-17 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.crea_si.eviacam.camera;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ImageFormat;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.media.Image;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.view.SurfaceView;
+
+import com.crea_si.eviacam.BuildConfig;
+import com.crea_si.eviacam.common.VisionPipeline;
+import com.crea_si.eviacam.util.FlipDirection;
+
+import org.opencv.android.FpsMeter;
+import org.opencv.android.Utils;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Draws the camera preview on its own thread so that a slow compositor does not
+ * delay the processing of the next frame.
+ *
+ * The capture thread copies the YUV image into a free slot of a triple buffer and
+ * publishes it. The render thread always picks the newest published frame, older
+ * frames not rendered yet are dropped. The frame rate of the preview can be capped.
+ */
+@TargetApi(21)
+class PreviewRenderer {
+    private static final String TAG= "PreviewRenderer";
+
+    // surface on which the image from the camera will be drawn
+    private final SurfaceView mSurfaceView;
+
+    // flip needed to draw the picture
+    private final FlipDirection mCameraFlip;
+
+    // pipeline that draws the feedback
+    private final VisionPipeline mVisionPipeline;
+
+    // store the rotation needed to draw the picture in upwards position
+    private volatile int mPreviewRotation= 0;
+
+    // whether the surface is supposed to be ready to draw on it
+    private volatile boolean mEnabled= false;
+    private final Object mDrawLock= new Object();
+
+    // min time between rendered frames in ms (0 means no limit)
+    private volatile long mMinFramePeriod= 0;
+    private long mLastSubmitTime= 0;
+
+    // YUV frames: one being written, one published and one being rendered
+    private final Mat[] mSlots= new Mat[3];
+
+    // feedback of each frame, taken on the capture thread along with the frame
+    private final boolean[] mSlotFeedbackValid= new boolean[3];
+    private final int[][] mSlotFeedback= new int[3][2];
+    private int mWriteIdx= 0, mPendingIdx= 1, mRenderIdx= 2;
+    private boolean mPendingValid= false;
+    private final Object mSlotsLock= new Object();
+
+    // buffers to extract the image planes without allocating for each frame
+    private byte[] mYuvData;
+    private byte[] mYuvRowData;
+
+    // images used by the render thread
+    private Mat mCacheImage;
+    private Bitmap mCacheBitmap;
+    private final Matrix mMatrixCached = new Matrix();
+
+    private FpsMeter mFpsMeter = null;
+
+    // render thread
+    private HandlerThread mRenderThread;
+    private Handler mRenderHandler;
+
+    /**
+     * Constructor
+     *
+     * @param view surface on which the preview will be drawn
+     * @param width width of the captured frames
+     * @param height height of the captured frames
+     * @param flip flip needed by the camera
+     * @param vp pipeline used to draw the feedback
+     */
+    PreviewRenderer(@NonNull SurfaceView view, int width, int height,
+                    @NonNull FlipDirection flip, @NonNull VisionPipeline vp) {
+        mSurfaceView= view;
+        mCameraFlip= flip;
+        mVisionPipeline= vp;
+
+        for (int i= 0; i< mSlots.length; i++) {
+            mSlots[i]= new Mat(height + height / 2, width, CvType.CV_8UC1);
+        }
+
+        mCacheBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        mCacheImage= new Mat(height, width, CvType.CV_8UC4);
+
+        /* Uncomment to enable the FPS meter for debugging */
+        if (BuildConfig.DEBUG) {
+            mFpsMeter = new FpsMeter();
+            mFpsMeter.setResolution(width, height);
+        }
+
+        mRenderThread = new HandlerThread("PreviewThread");
+        mRenderThread.start();
+        mRenderHandler = new Handler(mRenderThread.getLooper());
+    }
+
+    /**
+     * Free resources. Waits until the render thread finishes.
+     */
+    void cleanup() {
+        setEnabled(false);
+
+        if (mRenderThread != null) {
+            mRenderThread.quitSafely();
+            try {
+                mRenderThread.join();
+            } catch (InterruptedException e) {
+                Log.e(TAG, "stop PreviewThread");
+            }
+            mRenderThread= null;
+            mRenderHandler= null;
+        }
+
+        for (int i= 0; i< mSlots.length; i++) {
+            if (mSlots[i] != null) {
+                mSlots[i].release();
+                mSlots[i]= null;
+            }
+        }
+
+        if (mCacheBitmap != null) {
+            mCacheBitmap.recycle();
+            mCacheBitmap= null;
+        }
+
+        if (mCacheImage != null) {
+            mCacheImage.release();
+            mCacheImage= null;
+        }
+
+        mYuvData= null;
+        mYuvRowData= null;
+    }
+
+    /**
+     * Enable or disable drawing on the surface
+     *
+     * When disabling, waits until the frame being drawn (if any) is finished.
+     *
+     * @param enabled true to enable
+     */
+    void setEnabled(boolean enabled) {
+        synchronized (mDrawLock) {
+            mEnabled= enabled;
+        }
+    }
+
+    /**
+     * Sets the rotation to perform to the camera image before is displayed
+     *
+     * @param rotation rotation to perform (clockwise) in degrees
+     *                 legal values: 0, 90, 180, or 270
+     */
+    void setPreviewRotation (int rotation) {
+        mPreviewRotation= rotation;
+    }
+
+    /**
+     * Limit the frame rate of the preview
+     *
+     * @param fps max frames per second, 0 or less means no limit
+     */
+    void setMaxFrameRate (float fps) {
+        if (fps> 0) mMinFramePeriod= (long) (1000.0f / fps);
+        else mMinFramePeriod= 0;
+    }
+
+    /**
+     * Check whether the preview needs a new frame (called from the capture thread)
+     *
+     * @return true when enabled and the frame rate limit allows it
+     */
+    boolean needsFrame() {
+        return mEnabled &&
+                SystemClock.elapsedRealtime() - mLastSubmitTime >= mMinFramePeriod;
+    }
+
+    /**
+     * Submit a new frame to be rendered (called from the capture thread after the
+     * frame has been processed)
+     *
+     * The YUV planes are copied, the image can be closed after this call. Never blocks
+     * waiting for the render thread.
+     *
+     * @param image YUV_420_888 image
+     */
+    void submitFrame(@NonNull Image image) {
+        mLastSubmitTime= SystemClock.elapsedRealtime();
+
+        imageToMat(image, mSlots[mWriteIdx]);
+
+        /* The feedback goes with its frame, the render thread only reads its slot */
+        mSlotFeedbackValid[mWriteIdx]= mVisionPipeline.getFeedback(mSlotFeedback[mWriteIdx]);
+
+        /* Publish the frame, a previous one not yet rendered is discarded */
+        boolean needsPost;
+        synchronized (mSlotsLock) {
+            int tmp= mPendingIdx;
+            mPendingIdx= mWriteIdx;
+            mWriteIdx= tmp;
+            needsPost= !mPendingValid;
+            mPendingValid= true;
+        }
+
+        if (needsPost) {
+            Handler h= mRenderHandler;
+            if (h != null) h.post(mRenderRunnable);
+        }
+    }
+
+    /* Render the most recent frame (runs on the render thread) */
+    private final Runnable mRenderRunnable= new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mSlotsLock) {
+                if (!mPendingValid) return;
+                int tmp= mRenderIdx;
+                mRenderIdx= mPendingIdx;
+                mPendingIdx= tmp;
+                mPendingValid= false;
+            }
+
+            Imgproc.cvtColor(mSlots[mRenderIdx], mCacheImage, Imgproc.COLOR_YUV2BGRA_YV12);
+            if (mSlotFeedbackValid[mRenderIdx]) {
+                VisionPipeline.drawFeedback(mCacheImage.getNativeObjAddr(),
+                        mSlotFeedback[mRenderIdx]);
+            }
+
+            Utils.matToBitmap(mCacheImage, mCacheBitmap);
+
+            synchronized (mDrawLock) {
+                if (mEnabled) {
+                    Canvas canvas = mSurfaceView.getHolder().lockCanvas();
+                    if (canvas != null) {
+                        drawBitmap(canvas);
+                        mSurfaceView.getHolder().unlockCanvasAndPost(canvas);
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * Draw image stored in mCachedBitmap to the canvas
+     * @param canvas a canvas reference
+     */
+    private void drawBitmap(Canvas canvas) {
+        /* Canvas size */
+        final int canvasWidth= canvas.getWidth();
+        final int canvasHeight= canvas.getHeight();
+        if (0>= canvasWidth || 0>= canvasHeight) return;
+
+        /* Bitmap (captured image) size */
+        final int bitmapWidth= mCacheBitmap.getWidth();
+        final int bitmapHeight= mCacheBitmap.getHeight();
+
+        /*
+         * Set rotation matrix
+         */
+        mMatrixCached.reset();
+
+        if (mCameraFlip== FlipDirection.HORIZONTAL) {
+            mMatrixCached.postScale(-1.0f, 1.0f);
+            mMatrixCached.postTranslate(canvasWidth, 0.0f);
+        }
+        else if (mCameraFlip== FlipDirection.VERTICAL) {
+            mMatrixCached.postScale(1.0f, -1.0f);
+            mMatrixCached.postTranslate(0.0f, canvasHeight);
+        }
+        mMatrixCached.postRotate((float) mPreviewRotation, canvasWidth / 2, canvasHeight / 2);
+        canvas.setMatrix(mMatrixCached);
+
+        canvas.drawColor(0, android.graphics.PorterDuff.Mode.CLEAR);
+
+        if (canvasWidth!= bitmapWidth || canvasHeight != bitmapHeight) {
+            // Need to scale captured image to draw
+            float scale = Math.min((float) canvasHeight / (float) bitmapHeight,
+                                   (float) canvasWidth / (float) bitmapWidth);
+
+            canvas.drawBitmap(mCacheBitmap,
+                    new Rect(0, 0, bitmapWidth, bitmapHeight),
+                    new Rect((int)((canvasWidth - scale * bitmapWidth) / 2),
+                            (int)((canvasHeight - scale * bitmapHeight) / 2),
+                            (int)((canvasWidth - scale * bitmapWidth) / 2 + scale * bitmapWidth),
+                            (int)((canvasHeight - scale * bitmapHeight) / 2 + scale * bitmapHeight)),
+                    null);
+        } else {
+            canvas.drawBitmap(mCacheBitmap,
+                    new Rect(0, 0, bitmapWidth, bitmapHeight),
+                    new Rect((canvasWidth - bitmapWidth) / 2,
+                            (canvasHeight - bitmapHeight) / 2,
+                            (canvasWidth - bitmapWidth) / 2 + bitmapWidth,
+                            (canvasHeight - bitmapHeight) / 2 + bitmapHeight), null);
+        }
+
+        if (mFpsMeter != null) {
+            mFpsMeter.measure();
+            mFpsMeter.draw(canvas, 20, 30);
+        }
+    }
+
+    /**
+     * Copy the planes of a YUV_420_888 image into a (planar) YUV matrix
+     *
+     * @param image the image
+     * @param dst destination matrix of (height * 3 / 2) x width
+     */
+    private void imageToMat(Image image, Mat dst) {
+        ByteBuffer buffer;
+        int rowStride;
+        int pixelStride;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int offset = 0;
+
+        Image.Plane[] planes = image.getPlanes();
+
+        /* (Re)allocate buffers if needed */
+        final int dataSize= width * height * 3 / 2;  // ImageFormat.getBitsPerPixel(ImageFormat.YUV_420_888) / 8];
+        if (mYuvData == null || mYuvData.length != dataSize) {
+            mYuvData = new byte[dataSize];
+        }
+        if (mYuvRowData == null || mYuvRowData.length < planes[0].getRowStride()) {
+            mYuvRowData = new byte[planes[0].getRowStride()];
+        }
+        dst.create(height + height / 2, width, CvType.CV_8UC1);
+
+        byte[] data = mYuvData;
+        byte[] rowData = mYuvRowData;
+        final int bytesPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.YUV_420_888) / 8;
+
+        for (int i = 0; i < planes.length; i++) {
+            buffer = planes[i].getBuffer();
+            rowStride = planes[i].getRowStride();
+            pixelStride = planes[i].getPixelStride();
+            int w = (i == 0) ? width : width / 2;
+            int h = (i == 0) ? height : height / 2;
+            for (int row = 0; row < h; row++) {
+                if (pixelStride == bytesPerPixel) {
+                    int length = w * bytesPerPixel;
+                    buffer.get(data, offset, length);
+
+                    // Advance buffer the remainder of the row stride, unless on the last row.
+                    // Otherwise, this will throw an IllegalArgumentException because the buffer
+                    // doesn't include the last padding.
+                    if (h - row != 1) {
+                        buffer.position(buffer.position() + rowStride - length);
+                    }
+                    offset += length;
+                } else {
+
+                    // On the last row only read the width of the image minus the pixel stride
+                    // plus one. Otherwise, this will throw a BufferUnderflowException because the
+                    // buffer doesn't include the last padding.
+                    if (h - row == 1) {
+                        buffer.get(rowData, 0, width - pixelStride + 1);
+                    } else {
+                        buffer.get(rowData, 0, rowStride);
+                    }
+
+                    for (int col = 0; col < w; col++) {
+                        data[offset++] = rowData[col * pixelStride];
+                    }
+                }
+            }
+            // Leave the buffer as found, it is shared with other consumers
+            buffer.rewind();
+        }
+
+        // Finally, fill the Mat.
+        dst.put(0, 0, data);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.crea_si.eviacam.common;
+
+import android.graphics.PointF;
+import android.support.annotation.NonNull;
+
+/**
+ * Multiplies the motion by a factor which grows with its magnitude
+ */
+class AccelerationMotionFilter implements MotionFilter {
+    // constants
+    private static final int ACCEL_ARRAY_SIZE= 30;
+
+    // pre-computed acceleration vector (derived from acceleration setting)
+    private final float mAccelArray[]= new float[ACCEL_ARRAY_SIZE];
+
+    /**
+     * Constructor
+     *
+     * @param acceleration acceleration setting (0 to 5)
+     */
+    AccelerationMotionFilter(int acceleration) {
+        setAccelerationRamp(acceleration);
+    }
+
+    private void setAccelerationRamp(int delta0, float factor0, int delta1, float factor1) {
+        //assert (delta0> 2 && delta1> 2);
+        //assert (factor0> 0.0f && factor1> 0.0f);
+        
+        if (delta0>= ACCEL_ARRAY_SIZE) delta0= ACCEL_ARRAY_SIZE;
+        if (delta1>= ACCEL_ARRAY_SIZE) delta1= ACCEL_ARRAY_SIZE;
+        
+        int i;
+        
+        for (i= 0; i< delta0; i++) mAccelArray[i]= 1.0f;
+        for (;i< delta1; i++) mAccelArray[i]= factor0;
+        float j= 0;
+        for (;i< ACCEL_ARRAY_SIZE; i++) {
+            mAccelArray[i]= factor0 * factor1 + j;
+            j+= 0.1f;
+        }
+    }
+    
+    private void setAccelerationRamp(int delta0, float factor0) {
+        setAccelerationRamp(delta0, factor0, ACCEL_ARRAY_SIZE, 1.0f);
+    }
+    
+    private void setAccelerationRamp() {
+        setAccelerationRamp(ACCEL_ARRAY_SIZE, 1.0f, ACCEL_ARRAY_SIZE, 1.0f);
+    }
+    
+    private void setAccelerationRamp(int acceleration) {
+        switch (acceleration) {
+            case 0: setAccelerationRamp(); break;
+            case 1: setAccelerationRamp(9, 1.5f); break;
+            case 2: setAccelerationRamp(7, 1.5f); break;
+            case 3: setAccelerationRamp(7, 1.5f, 14, 2.0f); break;
+            case 4: setAccelerationRamp(5, 1.5f, 10, 3.0f); break;
+            case 5: setAccelerationRamp(3, 1.5f, 8, 3.0f); break;
+            default: throw new IllegalStateException("Wrong acceleration value");
+        }
+    }
+
+    @Override
+    public void apply(@NonNull PointF motion, float period) {
+        // the table is indexed by the displacement per frame at the reference frame rate
+        double distance= Math.sqrt (motion.x * motion.x + motion.y * motion.y) /
+                MotionProcessor.REFERENCE_FRAME_RATE;
+        int iAccelArray= (int) (distance + 0.5f);
+        if (iAccelArray>= ACCEL_ARRAY_SIZE) iAccelArray= ACCEL_ARRAY_SIZE - 1;
+        motion.x*= mAccelArray[iAccelArray];
+        motion.y*= mAccelArray[iAccelArray];
+    }
+
+    @Override
+    public void reset() { }
+}
@@ -27,6 +27,7 @@ import com.crea_si.eviacam.R;
 import com.crea_si.eviacam.camera.Camera;
 import com.crea_si.eviacam.camera.CameraLayerView;
 import com.crea_si.eviacam.camera.FrameProcessor;
+import com.crea_si.eviacam.camera.FrameStats;
 
 import android.app.AlertDialog;
 import android.app.Service;
@@ -44,6 +45,9 @@ import android.util.Log;
 import android.view.View;
 import android.view.WindowManager;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 
 /**
@@ -94,6 +98,15 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
     /* object in charge of capturing & processing frames */
     private Camera mCamera;
 
+    // vision pipeline of the camera
+    private VisionPipeline mVisionPipeline;
+
+    // vision pipeline settings and power state
+    private VisionPipelineControl mVisionPipelineControl;
+
+    // lowers the capture frame rate while idle
+    private FrameRateGovernor mFrameRateGovernor;
+
     /* object which encapsulates rotation and orientation logic */
     private OrientationManager mOrientationManager;
     protected OrientationManager getOrientationManager() { return mOrientationManager; }
@@ -104,6 +117,9 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
     /* When the engine is wating for the completion of some operation */
     private boolean mWaitState = false;
 
+    /* Whether the first frame after the initialization has not been processed yet */
+    private volatile boolean mFirstFramePending;
+
     /* Store requests when the engine is waiting for the completion of a previous one.
        These stored requests will be executed eventually in the order as arrived.
        This is needed because some operations (for instance, start or stop). */
@@ -154,13 +170,16 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
      * Called each time a frame is processed and the engine is in one of these states:
      *     STATE_RUNNING, STATE_PAUSED or STATE_STANDBY
      *
-     * @param motion motion vector, could be (0, 0) if motion not detected or the engine is
-     *               paused or in standby mode
+     * @param motion motion vector (pixels per second), could be (0, 0) if motion not detected
+     *               or the engine is paused or in standby mode
+     * @param timestamp capture time of the frame (ns, monotonic, arbitrary origin)
+     * @param period time elapsed since the previous frame (s)
      * @param faceDetected whether or not a face was detected for the last frame, note
      *                     not all frames are checked for the face detection algorithm
      * @param state current state of the engine
      */
-    protected abstract void onFrame(@NonNull PointF motion, boolean faceDetected, int state);
+    protected abstract void onFrame(@NonNull PointF motion, long timestamp, float period,
+                                    boolean faceDetected, int state);
 
 
     @Override
@@ -227,6 +246,9 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
      */
     // TODO: remove return value
     private boolean init2() {
+        StartupTimings.begin();
+        mFirstFramePending= true;
+
         mPowerManagement = new PowerManagement(mService, this);
         /*
          * Create UI stuff: root overlay and camera view
@@ -240,6 +262,7 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
         /*
          * camera and machine vision stuff
          */
+        long start= StartupTimings.now();
         try {
             mCamera = new Camera(mService, this);
         }
@@ -247,7 +270,11 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
             manageCameraError(e);
             return false;  // abort initialization
         }
+        StartupTimings.end("camera", start);
         mCameraLayerView.addCameraSurface(mCamera.getCameraSurface());
+        mVisionPipeline= mCamera.getVisionPipeline();
+        mVisionPipelineControl= new VisionPipelineControl(mService, mVisionPipeline);
+        mFrameRateGovernor= new FrameRateGovernor(mCamera);
 
         // orientation manager
         mOrientationManager= new OrientationManager(
@@ -345,15 +372,17 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
         mFaceDetectionCountdown.start();
 
         mPowerManagement.lockFullPower();         // Screen always on
-        mPowerManagement.setSleepEnabled(true);   // Enable sleep call
 
         /* show GUI elements */
         mOverlayView.requestLayout();
         mOverlayView.setVisibility(View.VISIBLE);
 
         mCameraLayerView.enableDetectionFeedback();
-        
+
+        startFrameRecording();
+
         // start processing frames
+        mFrameRateGovernor.reset();
         mCamera.startCamera();
 
         // set wait state until camera actually starts or error
@@ -364,6 +393,7 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
     public void onCameraStarted() {
         if (BuildConfig.DEBUG) Log.d(EVIACAM.TAG, "CoreEngine.onCameraStarted");
         if (mWaitState && mCurrentState == STATE_STOPPED) {
+            StartupTimings.mark("camera started");
             mWaitState= false;
             mCurrentState = STATE_RUNNING;
             dispatchRequests();
@@ -429,7 +459,8 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
         mCameraLayerView.disableDetectionFeedback();
 
         mPowerManagement.unlockFullPower();
-        mPowerManagement.setSleepEnabled(true);   // Enable sleep call
+
+        setLowPowerStandby(true);
 
         String t = String.format(
                 mService.getResources().getString(R.string.service_toast_pointer_stopped_toast),
@@ -441,6 +472,22 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
         mCurrentState= STATE_STANDBY;
     }
 
+    /**
+     * Switch capture and processing to the low power standby mode (lowest
+     * frame rate, only the face detector runs) or back to tracking
+     *
+     * When a face is found in standby, the vision pipeline and the frame rate
+     * are switched back at once from the camera thread (see onFrameProcessed),
+     * without waiting for resume.
+     */
+    private void setLowPowerStandby(boolean standby) {
+        // with the screen off wake-up is not urgent, look for the face rarely
+        int cpuUsage= (mPowerManagement.getScreenOn()?
+                VisionPipeline.CPU_HIGHEST : VisionPipeline.CPU_LOWEST);
+        mVisionPipeline.setStandby(standby, cpuUsage);
+        mFrameRateGovernor.setStandby(standby);
+    }
+
     @Override
     public void resume() {
         if (BuildConfig.DEBUG) Log.d(EVIACAM.TAG, "CoreEngine.resume");
@@ -463,7 +510,8 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
         mCameraLayerView.enableDetectionFeedback();
 
         mPowerManagement.lockFullPower();         // Screen always on
-        mPowerManagement.setSleepEnabled(true);   // Enable sleep call
+
+        setLowPowerStandby(false);
 
         mFaceDetectionCountdown.start();
 
@@ -489,11 +537,15 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
         if (BuildConfig.DEBUG) Log.d(EVIACAM.TAG, "CoreEngine.doStop");
         if (mCurrentState == STATE_DISABLED || mCurrentState == STATE_STOPPED) return;
 
-        mCamera.stopCamera();
+        /* The engine is stopped each time the screen goes off, keep the camera ready
+           so that starting again is fast. It is fully released on cleanup */
+        mCamera.stopCameraWarm();
+        stopFrameRecording();
         mOverlayView.setVisibility(View.INVISIBLE);
 
         mPowerManagement.unlockFullPower();
-        mPowerManagement.setSleepEnabled(false);
+
+        setLowPowerStandby(false);
 
         onStop();
 
@@ -520,8 +572,15 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
         // Call derived
         onCleanup();
 
+        mVisionPipelineControl.cleanup();
+        mVisionPipelineControl= null;
+
+        mFrameRateGovernor.cleanup();
+        mFrameRateGovernor= null;
+
         mCamera.cleanup();
         mCamera = null;
+        mVisionPipeline= null;
 
         mOrientationManager.cleanup();
         mOrientationManager= null;
@@ -562,6 +621,16 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
         mCameraLayerView.updateFaceDetectorStatus(fdc);
     }
 
+    @Override
+    public @Nullable VisionPipeline getVisionPipeline() {
+        return mVisionPipeline;
+    }
+
+    @Override
+    public @Nullable FrameStats getFrameStats() {
+        return (mCamera == null? null : mCamera.getFrameStats());
+    }
+
     /**
      * Called when screen goes ON or OFF
      */
@@ -592,6 +661,7 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
             // Screen switched off
             mSaveState= mCurrentState;
             if (mSaveState!= Engine.STATE_STANDBY) stop();
+            else setLowPowerStandby(true);
         }
     }
 
@@ -667,6 +737,7 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
                 public void onClick(DialogInterface dialog, int which) {
                     // Try to start the camera again
                     mCamera.stopCamera();
+                    mFrameRateGovernor.reset();
                     mCamera.startCamera();
                 }
             });
@@ -687,17 +758,74 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
 
     // avoid creating a new PointF for each frame
     private PointF mMotion= new PointF(0, 0);
+    private final float[] mMotionResult= new float[2];
+
+    // frames further apart than this are not regarded as consecutive (ns)
+    private static final long MAX_FRAME_INTERVAL= 500000000L;
+
+    // timestamp of the previous processed frame (ns), 0 when none
+    private long mLastFrameTimestamp;
+
+    // frame recorder, only when enabled in the preferences
+    private volatile FrameRecorder mFrameRecorder;
+
+    // number of recordings kept, including the one being recorded
+    private static final int MAX_RECORDINGS= 3;
+
+    /**
+     * Start recording frames if enabled in the preferences (debug builds only).
+     * Recordings are stored in the "recordings" folder of the app external storage,
+     * only the most recent ones are kept.
+     */
+    private void startFrameRecording() {
+        Preferences prefs= Preferences.get();
+        if (prefs == null || !prefs.getRecordFrames()) return;
+
+        File dir= mService.getExternalFilesDir(null);
+        if (dir == null) dir= mService.getFilesDir();
+        dir= new File(dir, "recordings");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(EVIACAM.TAG, "Cannot create " + dir.getAbsolutePath());
+            return;
+        }
+
+        FrameRecorder.deleteOldRecordings(dir, MAX_RECORDINGS - 1);
+
+        try {
+            mFrameRecorder= new FrameRecorder(new File(dir,
+                    "session-" + System.currentTimeMillis() + FrameRecorder.FILE_SUFFIX));
+        } catch (IOException e) {
+            Log.e(EVIACAM.TAG, "Cannot start frame recording. " + e.getMessage());
+        }
+    }
+
+    private void stopFrameRecording() {
+        FrameRecorder recorder= mFrameRecorder;
+        if (recorder == null) return;
+        mFrameRecorder= null;
+        recorder.cleanup();
+    }
+
+    /**
+     * Check whether incoming frames need to be processed
+     *
+     * @return true when in STATE_RUNNING, STATE_PAUSED or STATE_STANDBY state
+     */
+    private boolean needsProcessFrames() {
+        return !(mCurrentState== STATE_DISABLED || mCurrentState== STATE_STOPPED ||
+                isInWaitState());
+    }
 
     /**
      * Process incoming camera frames (called from a secondary thread)
      *
-     * @param rgba opencv matrix with the captured image
+     * @param gray opencv matrix with the luma plane of the captured image
+     * @param timestamp capture time of the frame (ns)
      */
     @Override
-    public void processFrame(@NonNull Mat rgba) {
+    public void processFrame(@NonNull Mat gray, long timestamp) {
         // For these states do nothing
-        if (mCurrentState== STATE_DISABLED || mCurrentState== STATE_STOPPED ||
-                isInWaitState()) return;
+        if (!needsProcessFrames()) return;
 
         /*
          * In STATE_RUNNING, STATE_PAUSED or STATE_STANDBY state.
@@ -709,20 +837,102 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
         mCamera.setPreviewRotation(pictRotation);
 
         // call jni part to detect and track face
-        mMotion.x= mMotion.y= 0.0f;
         boolean faceDetected=
-                VisionPipeline.processFrame(
-                        rgba.getNativeObjAddr(),
+                mVisionPipeline.processGrayFrame(
+                        gray.getNativeObjAddr(),
+                        mOrientationManager.getPictureFlip().getValue(),
+                        pictRotation,
+                        mMotionResult);
+        mMotion.set(mMotionResult[0], mMotionResult[1]);
+
+        FrameRecorder recorder= mFrameRecorder;
+        if (recorder != null) {
+            recorder.record(gray, timestamp, pictRotation,
+                    mOrientationManager.getPictureFlip().getValue(), mMotion, faceDetected);
+        }
+
+        onFrameProcessed(faceDetected, timestamp);
+    }
+
+    /**
+     * Process the luma plane of incoming camera frames (called from a secondary thread)
+     *
+     * @param luma direct buffer with the luma plane
+     * @param width width of the frame
+     * @param height height of the frame
+     * @param rowStride distance in bytes between two consecutive rows
+     * @param timestamp capture time of the frame (ns)
+     */
+    @Override
+    public void processFrame(@NonNull ByteBuffer luma, int width, int height, int rowStride,
+                             long timestamp) {
+        // For these states do nothing
+        if (!needsProcessFrames()) return;
+
+        int pictRotation = mOrientationManager.getPictureRotation();
+
+        // set preview rotation
+        mCamera.setPreviewRotation(pictRotation);
+
+        // call jni part to detect and track face
+        boolean faceDetected=
+                mVisionPipeline.processLumaBuffer(
+                        luma, width, height, rowStride,
                         mOrientationManager.getPictureFlip().getValue(),
                         pictRotation,
-                        mMotion);
+                        mMotionResult);
+        mMotion.set(mMotionResult[0], mMotionResult[1]);
+
+        FrameRecorder recorder= mFrameRecorder;
+        if (recorder != null) {
+            recorder.record(luma, width, height, rowStride, timestamp, pictRotation,
+                    mOrientationManager.getPictureFlip().getValue(), mMotion, faceDetected);
+        }
 
+        onFrameProcessed(faceDetected, timestamp);
+    }
+
+    /**
+     * Compute the time elapsed since the previous frame
+     *
+     * @param timestamp capture time of the current frame (ns)
+     * @return period in seconds, the nominal one when there is no previous frame
+     */
+    private float updateFramePeriod(long timestamp) {
+        long elapsed= timestamp - mLastFrameTimestamp;
+        boolean consecutive= (mLastFrameTimestamp!= 0 &&
+                elapsed> 0 && elapsed< MAX_FRAME_INTERVAL);
+        mLastFrameTimestamp= timestamp;
+
+        if (!consecutive) return 1.0f / MotionProcessor.REFERENCE_FRAME_RATE;
+        return elapsed / 1000000000.0f;
+    }
+
+    /**
+     * Manage the result of the vision pipeline for the current frame
+     *
+     * @param faceDetected whether the face has been detected
+     * @param timestamp capture time of the frame (ns)
+     */
+    private void onFrameProcessed(boolean faceDetected, long timestamp) {
         if (faceDetected) mLastFaceDetectionTimeStamp= System.currentTimeMillis();
 
+        // the pipeline gives the displacement since the previous frame, make it per second
+        float period= updateFramePeriod(timestamp);
+        mMotion.x /= period;
+        mMotion.y /= period;
+
+        mFrameRateGovernor.update(mMotion, timestamp, mCurrentState == STATE_RUNNING);
+
         // compensate mirror effect
         mMotion.x = -mMotion.x;
 
-        onFrame(mMotion, faceDetected, mCurrentState);
+        onFrame(mMotion, timestamp, period, faceDetected, mCurrentState);
+
+        if (mFirstFramePending && mCurrentState == STATE_RUNNING) {
+            StartupTimings.mark("first frame");
+            mFirstFramePending= false;
+        }
 
         // States to be managed below: RUNNING, PAUSED, STANDBY
 
@@ -730,23 +940,17 @@ public abstract class CoreEngine implements Engine, FrameProcessor,
 
         if (mCurrentState == STATE_STANDBY) {
             if (faceDetected) {
-                // "Awake" from standby state
+                /*
+                 * "Awake" from standby state. The vision pipeline has already
+                 * left standby and tracks from the next frame, restore the
+                 * frame rate now too. Frames keep being processed (the motion
+                 * is not used) until the main thread resumes the engine.
+                 */
+                mFrameRateGovernor.setStandby(false);
                 mHandler.post(new Runnable() {
                     @Override
                     public void run() { resume(); } }
                 );
-                /* Yield CPU to the main thread so that it has the opportunity
-                 * to run and change the engine state before this thread continue
-                 * running.
-                 * Remarks: tried Thread.yield() without success
-                 */
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) { /* do nothing */ }
-            }
-            else {
-                // In standby reduce CPU cycles by sleeping but only if screen went off
-                if (!mPowerManagement.getScreenOn()) mPowerManagement.sleep();
             }
         }
         else if (mCurrentState == STATE_RUNNING) {
@@ -0,0 +1,45 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.crea_si.eviacam.common;
+
+import android.graphics.PointF;
+import android.support.annotation.NonNull;
+
+/**
+ * Discards the components of the motion below a threshold so that the
+ * pointer stays still when the head almost does
+ */
+class DeadZoneMotionFilter implements MotionFilter {
+    // threshold in screen pixels per second
+    private final float mThreshold;
+
+    DeadZoneMotionFilter(float threshold) {
+        mThreshold= threshold;
+    }
+
+    @Override
+    public void apply(@NonNull PointF motion, float period) {
+        if (-mThreshold < motion.x && motion.x < mThreshold) motion.x= 0.0f;
+        if (-mThreshold < motion.y && motion.y < mThreshold) motion.y= 0.0f;
+    }
+
+    @Override
+    public void reset() { }
+}
@@ -23,6 +23,8 @@ import android.app.Service;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.crea_si.eviacam.camera.FrameStats;
+
 /**
  * Interface for the engine
  */
@@ -135,4 +137,20 @@ public interface Engine {
      * TODO: FaceDetectionCountdown is quite ugly
      */
     void updateFaceDetectorStatus(FaceDetectionCountdown fdc);
+
+    /**
+     * Get the vision pipeline of the engine, for diagnostics. Call from the main thread,
+     * the pipeline is cleaned up when the engine is.
+     *
+     * @return pipeline or null when the camera has not been started
+     */
+    @Nullable VisionPipeline getVisionPipeline();
+
+    /**
+     * Get the counters of the frames captured by the camera of the engine, for diagnostics.
+     * Call from the main thread.
+     *
+     * @return counters or null when the camera has not been started
+     */
+    @Nullable FrameStats getFrameStats();
 }
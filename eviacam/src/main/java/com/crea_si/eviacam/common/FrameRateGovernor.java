@@ -0,0 +1,135 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.crea_si.eviacam.common;
+
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.graphics.PointF;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.crea_si.eviacam.BuildConfig;
+import com.crea_si.eviacam.camera.Camera;
+
+/**
+ * Lowers the capture frame rate of the camera while the user is idle (the
+ * head stays still, e.g. reading or waiting for a dwell click, or the engine
+ * is not moving the pointer) and restores it on the first motion.
+ *
+ * In standby the lowest frame rate is selected at once (regardless of the
+ * settings) and the normal one is restored as soon as standby is left.
+ *
+ * Also applies the preview frame rate limit from the settings (camera2 only).
+ *
+ * Called for each frame from the camera thread.
+ */
+class FrameRateGovernor implements OnSharedPreferenceChangeListener {
+    // speed (pixels per second of the working image) below which the head is still
+    private static final float STILL_SPEED= 0.5f * MotionProcessor.REFERENCE_FRAME_RATE;
+
+    // speed that restores the frame rate (a bit higher, do not wake up on noise)
+    private static final float WAKE_SPEED= 2.0f * STILL_SPEED;
+
+    // time still before lowering the frame rate (ns)
+    private static final long IDLE_TIME= 3000000000L;
+
+    private final Camera mCamera;
+
+    // whether the idle frame rate is allowed (from the settings)
+    private volatile boolean mEnabled;
+
+    // whether the engine is in standby
+    private volatile boolean mStandby;
+
+    // whether the idle frame rate has been selected
+    private boolean mIdle;
+
+    // timestamp of the last frame with motion (ns), 0 when none
+    private long mLastMotionTimestamp;
+
+    FrameRateGovernor(@NonNull Camera c) {
+        mCamera= c;
+
+        Preferences.get().getSharedPreferences().registerOnSharedPreferenceChangeListener(this);
+        mEnabled= Preferences.get().getIdleFrameRate();
+        mCamera.setPreviewMaxFrameRate(Preferences.get().getPreviewFrameRate());
+    }
+
+    void cleanup() {
+        Preferences.get().getSharedPreferences().unregisterOnSharedPreferenceChangeListener(this);
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (key.equals(Preferences.KEY_IDLE_FRAME_RATE)) {
+            mEnabled= Preferences.get().getIdleFrameRate();
+        }
+        else if (key.equals(Preferences.KEY_PREVIEW_FRAME_RATE)) {
+            mCamera.setPreviewMaxFrameRate(Preferences.get().getPreviewFrameRate());
+        }
+    }
+
+    /**
+     * Forget the history, to be called when the camera is (re)started
+     * as it starts capturing at the normal frame rate
+     */
+    void reset() {
+        mIdle= false;
+        mLastMotionTimestamp= 0;
+    }
+
+    /**
+     * Enter or leave standby, takes effect on the next frame
+     */
+    void setStandby(boolean standby) {
+        mStandby= standby;
+    }
+
+    /**
+     * Update the governor with the motion of the current frame
+     *
+     * @param motion motion vector (pixels per second)
+     * @param timestamp capture time of the frame (ns)
+     * @param active whether the motion is being used to move the pointer
+     */
+    void update(@NonNull PointF motion, long timestamp, boolean active) {
+        float speed= (float) Math.hypot(motion.x, motion.y);
+
+        boolean idle;
+        if (mStandby) {
+            idle= true;
+            // start counting again when standby is left
+            mLastMotionTimestamp= 0;
+        }
+        else {
+            if (mLastMotionTimestamp == 0 ||
+                    active && speed>= (mIdle? WAKE_SPEED : STILL_SPEED)) {
+                mLastMotionTimestamp= timestamp;
+            }
+            idle= mEnabled && timestamp - mLastMotionTimestamp> IDLE_TIME;
+        }
+
+        if (idle != mIdle) {
+            if (BuildConfig.DEBUG) Log.d(EVIACAM.TAG, "FrameRateGovernor: idle " + idle);
+            mCamera.setIdleFrameRate(idle);
+            mIdle= idle;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.crea_si.eviacam.common;
+
+import android.graphics.PointF;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Records the gray frames fed to the vision pipeline along with their metadata
+ * so that real sessions can be replayed offline.
+ *
+ * Frames are copied into a bounded set of preallocated slots and written to disk
+ * by a background thread. When no slot is free the frame is dropped, so the camera
+ * thread never waits for the disk.
+ *
+ * File format (little endian, append only):
+ *
+ *   header: "EVRC" magic, int version
+ *   record: long timestamp (ns, capture time), int width, int height,
+ *           int rotation, int flip, float motion x, float motion y,
+ *           int face detected (0/1), width * height bytes of luma (no padding)
+ *
+ * The motion stored is the raw output of the vision pipeline (pixels per frame, before
+ * the mirror compensation and the conversion to pixels per second done by CoreEngine).
+ *
+ * Recordings are large (about 3 MB/s at 352x288 and 30 fps), so each file is limited to
+ * MAX_FILE_SIZE bytes, the recording just stops when reached, and deleteOldRecordings
+ * keeps only the most recent files.
+ */
+class FrameRecorder {
+    private static final int MAGIC= 0x43525645;     // "EVRC" in little endian
+    private static final int VERSION= 1;
+    private static final int RECORD_HEADER_SIZE= 36;
+
+    // Number of frames that can be waiting to be written
+    private static final int NUM_SLOTS= 8;
+
+    // Max size of a recording (about 3 minutes at 352x288 and 30 fps)
+    private static final long MAX_FILE_SIZE= 512L * 1024L * 1024L;
+
+    // Extension of the recording files
+    static final String FILE_SUFFIX= ".evrec";
+
+    private static class Slot {
+        byte[] data= new byte[0];
+        long timestamp;
+        int width, height, rotation, flip, faceDetected;
+        float motionX, motionY;
+    }
+
+    private final ArrayBlockingQueue<Slot> mFreeSlots=
+            new ArrayBlockingQueue<>(NUM_SLOTS);
+    private final ArrayBlockingQueue<Slot> mFullSlots=
+            new ArrayBlockingQueue<>(NUM_SLOTS + 1);
+
+    // Sentinel to finish the writer thread
+    private final Slot mEndSlot= new Slot();
+
+    private final File mFile;
+    private final FileOutputStream mStream;
+    private final FileChannel mChannel;
+    private final ByteBuffer mHeader=
+            ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final Thread mWriterThread;
+
+    private volatile boolean mFinished= false;
+
+    // written by the camera thread only, read from cleanup
+    private volatile int mRecordedFrames= 0;
+    private volatile int mDroppedFrames= 0;
+
+    /**
+     * Create the output file and start the writer thread
+     *
+     * @param file output file, truncated if exists
+     * @throws IOException when the file cannot be created
+     */
+    FrameRecorder(@NonNull File file) throws IOException {
+        mFile= file;
+        mStream= new FileOutputStream(file);
+        mChannel= mStream.getChannel();
+
+        ByteBuffer header= ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        mChannel.write(header);
+
+        for (int i= 0; i< NUM_SLOTS; i++) mFreeSlots.add(new Slot());
+
+        mWriterThread= new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writerLoop();
+            }
+        }, "FrameRecorder");
+        mWriterThread.setPriority(Thread.MIN_PRIORITY);
+        mWriterThread.start();
+
+        Log.i(EVIACAM.TAG, "FrameRecorder: recording to " + file.getAbsolutePath());
+    }
+
+    /**
+     * Record a frame given as an opencv matrix (called from the camera thread)
+     */
+    void record(@NonNull Mat gray, long timestamp, int rotation, int flip,
+                @NonNull PointF motion, boolean faceDetected) {
+        Slot slot= acquireSlot(gray.cols(), gray.rows());
+        if (slot == null) return;
+
+        gray.get(0, 0, slot.data);
+
+        submitSlot(slot, timestamp, rotation, flip, motion, faceDetected);
+    }
+
+    /**
+     * Record a frame given as a luma plane (called from the camera thread)
+     */
+    void record(@NonNull ByteBuffer luma, int width, int height, int rowStride,
+                long timestamp, int rotation, int flip, @NonNull PointF motion,
+                boolean faceDetected) {
+        Slot slot= acquireSlot(width, height);
+        if (slot == null) return;
+
+        int position= luma.position();
+        for (int y= 0; y< height; y++) {
+            luma.position(y * rowStride);
+            luma.get(slot.data, y * width, width);
+        }
+        luma.position(position);
+
+        submitSlot(slot, timestamp, rotation, flip, motion, faceDetected);
+    }
+
+    private Slot acquireSlot(int width, int height) {
+        if (mFinished) return null;
+
+        // never wait, drop the frame if the writer is behind
+        Slot slot= mFreeSlots.poll();
+        if (slot == null) {
+            mDroppedFrames++;
+            return null;
+        }
+
+        if (slot.data.length != width * height) slot.data= new byte[width * height];
+        slot.width= width;
+        slot.height= height;
+
+        return slot;
+    }
+
+    private void submitSlot(Slot slot, long timestamp, int rotation, int flip,
+                            PointF motion, boolean faceDetected) {
+        slot.timestamp= timestamp;
+        slot.rotation= rotation;
+        slot.flip= flip;
+        slot.motionX= motion.x;
+        slot.motionY= motion.y;
+        slot.faceDetected= faceDetected? 1 : 0;
+        mFullSlots.offer(slot);
+        mRecordedFrames++;
+    }
+
+    private void writerLoop() {
+        long fileSize= 8;   // file header
+
+        try {
+            for (;;) {
+                Slot slot= mFullSlots.take();
+                if (slot == mEndSlot) break;
+
+                fileSize+= RECORD_HEADER_SIZE + slot.data.length;
+                if (fileSize> MAX_FILE_SIZE) {
+                    Log.w(EVIACAM.TAG, "FrameRecorder: size limit reached, recording stopped");
+                    mFinished= true;
+                    break;
+                }
+
+                mHeader.clear();
+                mHeader.putLong(slot.timestamp).putInt(slot.width).putInt(slot.height)
+                       .putInt(slot.rotation).putInt(slot.flip)
+                       .putFloat(slot.motionX).putFloat(slot.motionY)
+                       .putInt(slot.faceDetected).flip();
+                mChannel.write(mHeader);
+                mChannel.write(ByteBuffer.wrap(slot.data));
+
+                mFreeSlots.offer(slot);
+            }
+        }
+        catch (InterruptedException ignored) { }
+        catch (IOException e) {
+            Log.e(EVIACAM.TAG, "FrameRecorder: write failed. " + e.getMessage());
+            mFinished= true;
+        }
+
+        try {
+            mStream.close();
+        }
+        catch (IOException ignored) { }
+    }
+
+    /**
+     * Delete the oldest recordings of a folder
+     *
+     * @param dir folder of the recordings
+     * @param keep number of recordings (the most recent ones) to keep
+     */
+    static void deleteOldRecordings(@NonNull File dir, int keep) {
+        File[] files= dir.listFiles();
+        if (files == null) return;
+
+        File[] recordings= new File[files.length];
+        int count= 0;
+        for (File f : files) {
+            if (f.isFile() && f.getName().endsWith(FILE_SUFFIX)) recordings[count++]= f;
+        }
+        if (count<= keep) return;
+
+        // newest first
+        Arrays.sort(recordings, 0, count, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff= b.lastModified() - a.lastModified();
+                return (diff> 0? 1 : (diff< 0? -1 : 0));
+            }
+        });
+
+        for (int i= Math.max(keep, 0); i< count; i++) {
+            if (!recordings[i].delete()) {
+                Log.w(EVIACAM.TAG, "Cannot delete " + recordings[i].getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Stop recording. Frames already queued are written before closing the file.
+     */
+    void cleanup() {
+        if (mFinished) return;
+        mFinished= true;
+
+        mFullSlots.offer(mEndSlot);
+        try {
+            mWriterThread.join();
+        }
+        catch (InterruptedException ignored) { }
+
+        Log.i(EVIACAM.TAG, "FrameRecorder: " + mFile.getName() + " recorded " +
+                mRecordedFrames + " frames, dropped " + mDroppedFrames);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.crea_si.eviacam.common;
+
+import android.graphics.PointF;
+import android.support.annotation.NonNull;
+
+/**
+ * First order low-pass filter with a constant time constant (the classic
+ * motion smoothing). The more smoothing, the more lag.
+ */
+class LowPassMotionFilter implements MotionFilter {
+    // weight of the previous motion (at the reference frame rate)
+    private final double mWeight;
+
+    // previous motion
+    private final PointF mPrevMotion= new PointF();
+
+    /**
+     * Constructor
+     *
+     * @param smoothness motion smoothing setting, 0 disables the filter
+     */
+    LowPassMotionFilter(int smoothness) {
+        mWeight= Math.log10((double) smoothness + 1);
+    }
+
+    @Override
+    public void apply(@NonNull PointF motion, float period) {
+        // the same decay per second regardless of the frame rate
+        float weight= (float) Math.pow(mWeight, period * MotionProcessor.REFERENCE_FRAME_RATE);
+        motion.x= motion.x * (1.0f - weight) + mPrevMotion.x * weight;
+        motion.y= motion.y * (1.0f - weight) + mPrevMotion.y * weight;
+        mPrevMotion.set(motion);
+    }
+
+    @Override
+    public void reset() {
+        mPrevMotion.set(0, 0);
+    }
+}
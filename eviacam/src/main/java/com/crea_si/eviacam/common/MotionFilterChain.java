@@ -0,0 +1,44 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.crea_si.eviacam.common;
+
+import android.graphics.PointF;
+import android.support.annotation.NonNull;
+
+/**
+ * Applies several filters, one after the other
+ */
+class MotionFilterChain implements MotionFilter {
+    private final MotionFilter[] mFilters;
+
+    MotionFilterChain(@NonNull MotionFilter... filters) {
+        mFilters= filters;
+    }
+
+    @Override
+    public void apply(@NonNull PointF motion, float period) {
+        for (MotionFilter f : mFilters) f.apply(motion, period);
+    }
+
+    @Override
+    public void reset() {
+        for (MotionFilter f : mFilters) f.reset();
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.crea_si.eviacam.common;
+
+import android.graphics.PointF;
+import android.support.annotation.NonNull;
+
+/**
+ * Extrapolates the pointer motion to compensate the lag of the pipeline
+ * (camera exposure, processing and the motion smoothing filter).
+ *
+ * Each axis of the motion (pixels per second) is tracked by a small Kalman
+ * filter with a constant velocity model (state: motion and its change per
+ * frame). The motion is then predicted the horizon ahead. Since the pointer
+ * location is the integral of the motion, this leads the pointer by the
+ * motion expected along the horizon, and the lead vanishes when the motion
+ * stops, so the pointer does not drift.
+ *
+ * The average error with respect to the actual motion the horizon later is
+ * computed both for the predicted motion and for the motion given as input
+ * (i.e. only smoothed) so that both can be compared. The actual motion is
+ * taken by the filter returned by getReferenceTap(), which needs to be
+ * placed before the smoothing in the chain.
+ */
+class MotionPredictor implements MotionFilter {
+    // lead limit (in frames), beyond this the extrapolation is mostly noise
+    private static final float MAX_LEAD_FRAMES= 3.0f;
+
+    // frame period assumed until measured (ms)
+    private static final float DEFAULT_FRAME_PERIOD= 33.3f;
+
+    // noise of the change of the motion vs. noise of the measured motion
+    private static final float PROCESS_NOISE= 0.05f;
+    private static final float MEASUREMENT_NOISE= 1.0f;
+
+    // frames kept to compute the prediction error (>= MAX_LEAD_FRAMES + 1)
+    private static final int HISTORY_SIZE= 4;
+
+    /**
+     * Kalman filter for one axis with constant velocity model
+     */
+    private static class Axis {
+        // state: motion and change of the motion per frame
+        private float mMotion, mChange;
+
+        // state covariance
+        private float mP00, mP01, mP11;
+
+        void reset(float motion) {
+            mMotion= motion;
+            mChange= 0;
+            mP00= MEASUREMENT_NOISE;
+            mP01= 0;
+            mP11= MEASUREMENT_NOISE;
+        }
+
+        void update(float measured) {
+            // predict (F= [1 1; 0 1], Q= q * [1/4 1/2; 1/2 1])
+            mMotion+= mChange;
+            float p00= mP00 + 2.0f * mP01 + mP11 + 0.25f * PROCESS_NOISE;
+            float p01= mP01 + mP11 + 0.5f * PROCESS_NOISE;
+            float p11= mP11 + PROCESS_NOISE;
+
+            // correct (H= [1 0])
+            float s= p00 + MEASUREMENT_NOISE;
+            float k0= p00 / s;
+            float k1= p01 / s;
+            float innovation= measured - mMotion;
+            mMotion+= k0 * innovation;
+            mChange+= k1 * innovation;
+            mP00= (1.0f - k0) * p00;
+            mP01= (1.0f - k0) * p01;
+            mP11= p11 - k1 * p01;
+        }
+
+        float predict(float lead) {
+            return mMotion + mChange * lead;
+        }
+    }
+
+    private final Axis mAxisX= new Axis();
+    private final Axis mAxisY= new Axis();
+
+    // prediction horizon (ms), 0 disables
+    private volatile int mHorizon;
+
+    // frame period (ms, averaged)
+    private float mFramePeriod= DEFAULT_FRAME_PERIOD;
+
+    // whether there is a previous frame
+    private boolean mInitialized;
+
+    // past input and predicted motions
+    private final PointF[] mInputHistory= new PointF[HISTORY_SIZE];
+    private final PointF[] mPredictedHistory= new PointF[HISTORY_SIZE];
+    private int mHistoryCount;
+    private int mHistoryPos;
+
+    // unfiltered motion of the current frame
+    private final PointF mReference= new PointF();
+
+    private final MotionFilter mReferenceTap= new MotionFilter() {
+        @Override
+        public void apply(@NonNull PointF motion, float period) {
+            mReference.set(motion);
+        }
+
+        @Override
+        public void reset() { }
+    };
+
+    // accumulated errors
+    private double mInputError, mPredictedError;
+    private int mErrorCount;
+
+    MotionPredictor() {
+        for (int i= 0; i< HISTORY_SIZE; i++) {
+            mInputHistory[i]= new PointF();
+            mPredictedHistory[i]= new PointF();
+        }
+    }
+
+    /**
+     * Set how far ahead the motion is predicted
+     *
+     * @param horizon time in ms, 0 disables the prediction
+     */
+    void setHorizon(int horizon) {
+        mHorizon= (horizon< 0? 0 : horizon);
+    }
+
+    /**
+     * @return filter which takes the unfiltered motion to compute the errors
+     */
+    @NonNull
+    MotionFilter getReferenceTap() {
+        return mReferenceTap;
+    }
+
+    @Override
+    public void reset() {
+        mInitialized= false;
+        mHistoryCount= 0;
+    }
+
+    /**
+     * Predict the motion for the current frame
+     *
+     * @param motion motion vector (pixels per second), replaced by the prediction
+     * @param period time elapsed since the previous frame (s)
+     */
+    @Override
+    public void apply(@NonNull PointF motion, float period) {
+        final PointF reference= mReference;
+        int horizon= mHorizon;
+
+        if (mInitialized) {
+            mFramePeriod= 0.9f * mFramePeriod + 0.1f * (period * 1000.0f);
+            mAxisX.update(motion.x);
+            mAxisY.update(motion.y);
+        }
+        else {
+            mAxisX.reset(motion.x);
+            mAxisY.reset(motion.y);
+            mHistoryCount= 0;
+            mInitialized= true;
+        }
+
+        float lead= Math.min(horizon / mFramePeriod, MAX_LEAD_FRAMES);
+        int leadFrames= Math.round(lead);
+
+        // errors of the motions given leadFrames ago with respect to the current one
+        if (leadFrames> 0 && mHistoryCount>= leadFrames) {
+            int i= (mHistoryPos - leadFrames + HISTORY_SIZE) % HISTORY_SIZE;
+            mInputError+= Math.hypot(mInputHistory[i].x - reference.x,
+                    mInputHistory[i].y - reference.y);
+            mPredictedError+= Math.hypot(mPredictedHistory[i].x - reference.x,
+                    mPredictedHistory[i].y - reference.y);
+            mErrorCount++;
+        }
+
+        mInputHistory[mHistoryPos].set(motion);
+
+        if (horizon> 0) {
+            motion.x= mAxisX.predict(lead);
+            motion.y= mAxisY.predict(lead);
+        }
+
+        mPredictedHistory[mHistoryPos].set(motion);
+        mHistoryPos= (mHistoryPos + 1) % HISTORY_SIZE;
+        if (mHistoryCount< HISTORY_SIZE) mHistoryCount++;
+    }
+
+    /**
+     * @return number of frames used to compute the errors
+     */
+    int getErrorCount() {
+        return mErrorCount;
+    }
+
+    /**
+     * @return average error (pixels per second) of the motion without prediction
+     */
+    float getInputError() {
+        return (mErrorCount== 0? 0 : (float) (mInputError / mErrorCount));
+    }
+
+    /**
+     * @return average error (pixels per second) of the predicted motion
+     */
+    float getPredictedError() {
+        return (mErrorCount== 0? 0 : (float) (mPredictedError / mErrorCount));
+    }
+
+    /**
+     * @return average frame period (ms)
+     */
+    float getFramePeriod() {
+        return mFramePeriod;
+    }
+}
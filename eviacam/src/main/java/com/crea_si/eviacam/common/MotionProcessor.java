@@ -23,7 +23,21 @@ import android.graphics.PointF;
 import android.support.annotation.NonNull;
 
 public interface MotionProcessor {
-    void processMotion(@NonNull PointF motion);
+    /**
+     * Frame rate the motion settings (speeds, acceleration, thresholds) were
+     * tuned for when the motion was given per frame. Settings which are
+     * expressed per frame are scaled by it so that they feel the same at
+     * any actual frame rate.
+     */
+    float REFERENCE_FRAME_RATE= 30.0f;
+
+    /**
+     * Process the motion of a frame
+     *
+     * @param motion motion vector (pixels per second)
+     * @param period time elapsed since the previous frame (s)
+     */
+    void processMotion(@NonNull PointF motion, float period);
     void start();
     void stop();
     void cleanup();
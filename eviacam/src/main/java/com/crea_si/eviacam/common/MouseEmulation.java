@@ -164,16 +164,17 @@ public class MouseEmulation implements MotionProcessor {
     /**
      * Process incoming motion
      *
-     * @param motion motion vector
+     * @param motion motion vector (pixels per second)
+     * @param period time elapsed since the previous frame (s)
      *
      * NOTE: this method can be called from a secondary thread
      */
     @Override
-    public void processMotion(@NonNull PointF motion) {
+    public void processMotion(@NonNull PointF motion, float period) {
         if (mState != STATE_RUNNING) return;
 
         // update pointer location given motion
-        mPointerControl.updateMotion(motion);
+        mPointerControl.updateMotion(motion, period);
         
         // get new pointer location
         PointF pointerLocation= mPointerControl.getPointerLocation();
@@ -143,15 +143,29 @@ public class MousePreferencesActivity extends Activity {
             /*
              * Remove camera2 related preferences if not supported by the device
              */
+            PreferenceCategory advanced = (PreferenceCategory) findPreference("advanced");
             if (!Camera.hasCamera2Support()) {
-                PreferenceCategory advanced = (PreferenceCategory) findPreference("advanced");
-                if (null != advanced) {
-                    getPreferenceScreen().removePreference(advanced);
-                }
+                advanced.removePreference(findPreference(Preferences.KEY_USE_CAMERA2_API));
+                advanced.removePreference(findPreference(Preferences.KEY_PREVIEW_FRAME_RATE));
             }
             else {
                 ListPreference lp = (ListPreference) findPreference(Preferences.KEY_USE_CAMERA2_API);
                 lp.setOnPreferenceChangeListener(new ListPreferenceUpdate(lp));
+
+                lp = (ListPreference) findPreference(Preferences.KEY_PREVIEW_FRAME_RATE);
+                lp.setOnPreferenceChangeListener(new ListPreferenceUpdate(lp));
+            }
+
+            /*
+             * Frame recording is only offered in debug builds
+             */
+            if (!BuildConfig.DEBUG) {
+                advanced.removePreference(findPreference(Preferences.KEY_RECORD_FRAMES));
+            }
+
+            // Hide the category when nothing is left in it
+            if (advanced.getPreferenceCount() == 0) {
+                getPreferenceScreen().removePreference(advanced);
             }
 
             /*
@@ -218,6 +232,15 @@ public class MousePreferencesActivity extends Activity {
 
             lp = (ListPreference) findPreference(Preferences.KEY_UI_ELEMENTS_SIZE);
             lp.setOnPreferenceChangeListener(new ListPreferenceUpdate(lp));
+
+            lp = (ListPreference) findPreference(Preferences.KEY_MOTION_FILTER);
+            lp.setOnPreferenceChangeListener(new ListPreferenceUpdate(lp));
+
+            lp = (ListPreference) findPreference(Preferences.KEY_CPU_USAGE);
+            lp.setOnPreferenceChangeListener(new ListPreferenceUpdate(lp));
+
+            lp = (ListPreference) findPreference(Preferences.KEY_MOTION_ESTIMATOR);
+            lp.setOnPreferenceChangeListener(new ListPreferenceUpdate(lp));
         }
     }
 
@@ -0,0 +1,94 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.crea_si.eviacam.common;
+
+import android.graphics.PointF;
+import android.support.annotation.NonNull;
+
+/**
+ * Speed adaptive low-pass filter (One Euro filter, Casiez et al. 2012)
+ *
+ * The cutoff frequency grows with the speed of the pointer: slow motions
+ * (e.g. tremor while resting) are heavily smoothed whereas fast motions go
+ * through with little lag. The input is already the speed of the pointer
+ * so it is not derived.
+ */
+class OneEuroMotionFilter implements MotionFilter {
+    // cutoff frequency (Hz) of the speed filter
+    private static final float SPEED_CUTOFF= 1.0f;
+
+    // increment of the cutoff frequency (Hz) per pixel per second of speed
+    private static final float SPEED_COEFFICIENT= 0.01f;
+
+    // cutoff frequency (Hz) for the lowest smoothing level
+    private static final float MAX_MIN_CUTOFF= 3.0f;
+
+    // cutoff frequency (Hz) at rest, 0 disables the filter
+    private final float mMinCutoff;
+
+    // filtered motion and speed (pixels per second)
+    private final PointF mMotion= new PointF();
+    private float mSpeed;
+
+    // whether there is a previous frame
+    private boolean mInitialized;
+
+    /**
+     * Constructor
+     *
+     * @param smoothness motion smoothing setting, 0 disables the filter
+     */
+    OneEuroMotionFilter(int smoothness) {
+        mMinCutoff= (smoothness> 0? MAX_MIN_CUTOFF / smoothness : 0);
+    }
+
+    /**
+     * Weight of the new sample for a given cutoff frequency and period
+     */
+    private static float alpha(float cutoff, float period) {
+        float tau= (float) (1.0 / (2.0 * Math.PI * cutoff));
+        return 1.0f / (1.0f + tau / period);
+    }
+
+    @Override
+    public void apply(@NonNull PointF motion, float period) {
+        if (mMinCutoff== 0) return;
+
+        if (!mInitialized) {
+            mMotion.set(motion);
+            mSpeed= 0;
+            mInitialized= true;
+            return;
+        }
+
+        float speed= (float) Math.hypot(motion.x, motion.y);
+        mSpeed+= alpha(SPEED_CUTOFF, period) * (speed - mSpeed);
+
+        float a= alpha(mMinCutoff + SPEED_COEFFICIENT * mSpeed, period);
+        mMotion.x+= a * (motion.x - mMotion.x);
+        mMotion.y+= a * (motion.y - mMotion.y);
+        motion.set(mMotion);
+    }
+
+    @Override
+    public void reset() {
+        mInitialized= false;
+    }
+}
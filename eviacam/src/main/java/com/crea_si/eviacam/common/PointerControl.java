@@ -23,27 +23,19 @@ import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.graphics.PointF;
 import android.support.annotation.NonNull;
+import android.util.Log;
 
 import java.lang.Math;
 
 class PointerControl implements OnSharedPreferenceChangeListener {
-    // constants
-    private final int ACCEL_ARRAY_SIZE= 30;
-
     // speed multipliers (derived from axis speed)
     private float mHorizontalMultiplier, mVerticalMultiplier;
 
-    // pre-computed acceleration vector (derived from acceleration setting)
-    private float mAccelArray[]= new float[ACCEL_ARRAY_SIZE];
-
-    // filter weight (derived from motion_smoothing)
-    private float mLowPassFilterWeight;
+    // extrapolates the motion to compensate the lag
+    private final MotionPredictor mMotionPredictor= new MotionPredictor();
 
-    // previous motion (needed for the motion filter)
-    private PointF mPrevMotion = new PointF();
-
-    // motion threshold in screen pixels
-    private int mMotionThreshold;
+    // filters applied to the motion (rebuilt when the settings change)
+    private volatile MotionFilter mMotionFilter;
 
     // pointer location in screen coordinates
     private PointF mPointerLocation= new PointF();
@@ -70,13 +62,45 @@ class PointerControl implements OnSharedPreferenceChangeListener {
         // get values from shared resources
         setHorizontalSpeedMultiplier(Preferences.get().getHorizontalSpeed());
         setVerticalSpeedMultiplier(Preferences.get().getVerticalSpeed());
-        setAccelerationRamp(Preferences.get().getAcceleration());
-        setMotionSmoothing(Preferences.get().getMotionSmoothing());
-        mMotionThreshold= Preferences.get().getMotionThreshold();
+        mMotionPredictor.setHorizon(Preferences.get().getMotionPrediction());
+        mMotionFilter= createMotionFilter();
+    }
+
+    /**
+     * Build the filter chain from the settings
+     */
+    private MotionFilter createMotionFilter() {
+        Preferences prefs= Preferences.get();
+
+        int smoothness= prefs.getMotionSmoothing();
+        MotionFilter smoothing;
+        if (prefs.getMotionFilter() == Preferences.MOTION_FILTER_ADAPTIVE) {
+            smoothing= new OneEuroMotionFilter(smoothness);
+        }
+        else {
+            smoothing= new LowPassMotionFilter(smoothness);
+        }
+
+        return new MotionFilterChain(
+                mMotionPredictor.getReferenceTap(),
+                smoothing,
+                // compensates the lag of the camera, the processing and the smoothing
+                mMotionPredictor,
+                new AccelerationMotionFilter(prefs.getAcceleration()),
+                // stop margin (the setting is given per frame)
+                new DeadZoneMotionFilter(
+                        prefs.getMotionThreshold() * MotionProcessor.REFERENCE_FRAME_RATE));
     }
     
     // clean-up object
     public void cleanup() {
+        if (mMotionPredictor.getErrorCount()> 0) {
+            Log.i(EVIACAM.TAG, String.format(
+                    "Motion prediction error (px/s): smoothed %.2f, predicted %.2f (%d frames, %.1f ms/frame)",
+                    mMotionPredictor.getInputError(), mMotionPredictor.getPredictedError(),
+                    mMotionPredictor.getErrorCount(), mMotionPredictor.getFramePeriod()));
+        }
+
         Preferences.get().getSharedPreferences().unregisterOnSharedPreferenceChangeListener(this);
     }
     
@@ -87,6 +111,8 @@ class PointerControl implements OnSharedPreferenceChangeListener {
             key.equals(Preferences.KEY_VERTICAL_SPEED) ||
             key.equals(Preferences.KEY_ACCELERATION) ||
             key.equals(Preferences.KEY_MOTION_SMOOTHING) ||
+            key.equals(Preferences.KEY_MOTION_FILTER) ||
+            key.equals(Preferences.KEY_MOTION_PREDICTION) ||
             key.equals(Preferences.KEY_MOTION_THRESHOLD)) {
             updateSettings();
         }
@@ -104,54 +130,13 @@ class PointerControl implements OnSharedPreferenceChangeListener {
         mVerticalMultiplier = computeSpeedMultiplier(value);
     }
 
-    private void setAccelerationRamp(int delta0, float factor0, int delta1, float factor1) {
-        //assert (delta0> 2 && delta1> 2);
-        //assert (factor0> 0.0f && factor1> 0.0f);
-        
-        if (delta0>= ACCEL_ARRAY_SIZE) delta0= ACCEL_ARRAY_SIZE;
-        if (delta1>= ACCEL_ARRAY_SIZE) delta1= ACCEL_ARRAY_SIZE;
-        
-        int i;
-        
-        for (i= 0; i< delta0; i++) mAccelArray[i]= 1.0f;
-        for (;i< delta1; i++) mAccelArray[i]= factor0;
-        float j= 0;
-        for (;i< ACCEL_ARRAY_SIZE; i++) {
-            mAccelArray[i]= factor0 * factor1 + j;
-            j+= 0.1f;
-        }
-    }
-    
-    private void setAccelerationRamp(int delta0, float factor0) {
-        setAccelerationRamp(delta0, factor0, ACCEL_ARRAY_SIZE, 1.0f);
-    }
-    
-    private void setAccelerationRamp() {
-        setAccelerationRamp(ACCEL_ARRAY_SIZE, 1.0f, ACCEL_ARRAY_SIZE, 1.0f);
-    }
-    
-    private void setAccelerationRamp(int acceleration) {
-        switch (acceleration) {
-            case 0: setAccelerationRamp(); break;
-            case 1: setAccelerationRamp(9, 1.5f); break;
-            case 2: setAccelerationRamp(7, 1.5f); break;
-            case 3: setAccelerationRamp(7, 1.5f, 14, 2.0f); break;
-            case 4: setAccelerationRamp(5, 1.5f, 10, 3.0f); break;
-            case 5: setAccelerationRamp(3, 1.5f, 8, 3.0f); break;
-            default: throw new IllegalStateException("Wrong acceleration value");
-        }
-    }
-
-    private void setMotionSmoothing(int smoothness) {
-        mLowPassFilterWeight= (float) Math.log10((double) smoothness + 1);
-    }
-    
     /**
      * Reset pointer location by centering it
      */
     public void reset () {
         mPointerLocation.x = mPointerLayerView.getWidth() / 2;
         mPointerLocation.y = mPointerLayerView.getHeight() / 2;
+        mMotionFilter.reset();
     }
 
     // current motion (avoid creating an instance for each updateMotion call)
@@ -159,9 +144,11 @@ class PointerControl implements OnSharedPreferenceChangeListener {
 
     /**
      * Called for each frame to update pointer position
-     * @param vel motion vector in world coordinates (i.e. upright face coordinates)
+     * @param vel motion vector in world coordinates (i.e. upright face coordinates),
+     *            pixels per second
+     * @param period time elapsed since the previous frame (s)
      */
-    void updateMotion(@NonNull PointF vel) {
+    void updateMotion(@NonNull PointF vel, float period) {
         mCurrMotion.x= vel.x;
         mCurrMotion.y= vel.y;
 
@@ -198,32 +185,14 @@ class PointerControl implements OnSharedPreferenceChangeListener {
             mCurrMotion.y *= mLongSideSpeed;
         }*/
 
-        // low-pass filter
-        mCurrMotion.x= mCurrMotion.x * (1.0f - mLowPassFilterWeight) +
-                mPrevMotion.x * mLowPassFilterWeight;
-        mCurrMotion.y= mCurrMotion.y * (1.0f - mLowPassFilterWeight) +
-                mPrevMotion.y * mLowPassFilterWeight;
-        mPrevMotion.x= mCurrMotion.x;
-        mPrevMotion.y= mCurrMotion.y;
-
-        // acceleration
-        double distance= Math.sqrt (mCurrMotion.x * mCurrMotion.x + mCurrMotion.y * mCurrMotion.y);
-        int iAccelArray= (int) (distance + 0.5f);
-        if (iAccelArray>= ACCEL_ARRAY_SIZE) iAccelArray= ACCEL_ARRAY_SIZE - 1;
-        mCurrMotion.x*= mAccelArray[iAccelArray];
-        mCurrMotion.y*= mAccelArray[iAccelArray];
-
-        // stop margin
-        if (-mMotionThreshold < mCurrMotion.x &&
-                mCurrMotion.x < mMotionThreshold) mCurrMotion.x= 0.0f;
-        if (-mMotionThreshold < mCurrMotion.y &&
-                mCurrMotion.y < mMotionThreshold) mCurrMotion.y= 0.0f;
+        // smoothing, prediction, acceleration and stop margin
+        mMotionFilter.apply(mCurrMotion, period);
 
         // apply rotation
         mOrientationManager.fixVectorOrientation(mCurrMotion);
 
         // update pointer location
-        mPointerLocation.x+= mCurrMotion.x;
+        mPointerLocation.x+= mCurrMotion.x * period;
         if (mPointerLocation.x< 0) {
             mPointerLocation.x= 0;
         }
@@ -233,7 +202,7 @@ class PointerControl implements OnSharedPreferenceChangeListener {
                 mPointerLocation.x= width - 1;
         }
          
-        mPointerLocation.y+= mCurrMotion.y;
+        mPointerLocation.y+= mCurrMotion.y * period;
         if (mPointerLocation.y< 0) {
             mPointerLocation.y= 0;
         }
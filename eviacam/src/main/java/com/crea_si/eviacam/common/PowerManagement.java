@@ -41,9 +41,6 @@ public class PowerManagement extends BroadcastReceiver {
     // power management lock
     private PowerManager.WakeLock mWakeLook;
 
-    // condition to interrupt sleep
-    private volatile boolean mSleepEnabled= true;
-
     // screen status (we assume the screen is on at startup)
     private boolean mScreenOn;
 
@@ -106,30 +103,5 @@ public class PowerManagement extends BroadcastReceiver {
         if (mWakeLook.isHeld()) mWakeLook.release();
     }
 
-    /**
-     * Method used to slowdown a secondary thread
-     *
-     * To exit this call (in a reasonable time) call setSleepEnabled(false)
-     */
-    public void sleep() {
-        final int SLEEP_DURATION = 500;
-        final int SLEEP_ITERATIONS_MAX= 10;
-
-        try {
-            for (int i= 0; mSleepEnabled && i< SLEEP_ITERATIONS_MAX; i++) {
-                Thread.sleep(SLEEP_DURATION);
-            }
-        } catch (InterruptedException e) { /* do nothing */ }
-    }
-
-    /**
-     * Allows the sleep call to finish
-     *
-     * @param enabled false to finish sleep call as soon as possible
-     */
-    public void setSleepEnabled (boolean enabled) {
-        mSleepEnabled= enabled;
-    }
-
 
 }
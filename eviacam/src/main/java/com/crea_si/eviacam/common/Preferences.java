@@ -25,6 +25,7 @@ import android.content.res.Resources;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
+import com.crea_si.eviacam.BuildConfig;
 import com.crea_si.eviacam.R;
 
 import org.acra.ACRA;
@@ -45,6 +46,8 @@ public class Preferences {
     public static final String KEY_ACCELERATION= "acceleration";
     public static final String KEY_MOTION_SMOOTHING= "motion_smoothing";
     public static final String KEY_MOTION_THRESHOLD= "motion_threshold";
+    public static final String KEY_MOTION_FILTER= "motion_filter";
+    public static final String KEY_MOTION_PREDICTION= "motion_prediction";
     public static final String KEY_DWELL_TIME= "dwell_time";
     public static final String KEY_DWELL_AREA= "dwell_area";
     public static final String KEY_SOUND_ON_CLICK= "sound_on_click";
@@ -59,6 +62,11 @@ public class Preferences {
     private static final String KEY_RUN_TUTORIAL= "run_tutorial";
     private static final String KEY_SHOW_LAUNCHER_HELP= "show_launcher_help";
     public static final String KEY_USE_CAMERA2_API= "use_camera2_api";
+    public static final String KEY_RECORD_FRAMES= "record_frames";
+    public static final String KEY_IDLE_FRAME_RATE= "idle_frame_rate";
+    public static final String KEY_CPU_USAGE= "cpu_usage";
+    public static final String KEY_MOTION_ESTIMATOR= "motion_estimator";
+    public static final String KEY_PREVIEW_FRAME_RATE= "preview_frame_rate";
     private static final String KEY_ENGINE_WAS_RUNNING= "engine_was_running";
     private static final String KEY_SHOW_CONTEXT_MENU_HELP = "display_context_menu_help";
 
@@ -88,6 +96,9 @@ public class Preferences {
     private final int MOTION_THRESHOLD_DEFAULT;
     private final int MOTION_THRESHOLD_MIN;
     private final int MOTION_THRESHOLD_MAX;
+    private final int MOTION_PREDICTION_DEFAULT;
+    private final int MOTION_PREDICTION_MIN;
+    private final int MOTION_PREDICTION_MAX;
     private final boolean SOUND_ON_CLICK_DEFAULT;
     private String[] TIME_WITHOUT_DETECTION_ENTRIES;
     private String[] TIME_WITHOUT_DETECTION_VALUES;
@@ -127,6 +138,9 @@ public class Preferences {
         MOTION_THRESHOLD_DEFAULT= r.getInteger(R.integer.motion_threshold_default);
         MOTION_THRESHOLD_MIN= r.getInteger(R.integer.motion_threshold_min);
         MOTION_THRESHOLD_MAX= r.getInteger(R.integer.motion_threshold_max);
+        MOTION_PREDICTION_DEFAULT= r.getInteger(R.integer.motion_prediction_default);
+        MOTION_PREDICTION_MIN= r.getInteger(R.integer.motion_prediction_min);
+        MOTION_PREDICTION_MAX= r.getInteger(R.integer.motion_prediction_max);
         SOUND_ON_CLICK_DEFAULT= r.getBoolean(R.bool.sound_on_click_default);
 
         TIME_WITHOUT_DETECTION_VALUES= r.getStringArray(R.array.time_without_detection_values);
@@ -283,12 +297,36 @@ public class Preferences {
         return constraint (v, MOTION_SMOOTHING_MIN, MOTION_SMOOTHING_MAX);
     }
 
+    /**
+     * Motion smoothing filters
+     */
+    public static final int MOTION_FILTER_CLASSIC= 0;
+    public static final int MOTION_FILTER_ADAPTIVE= 1;
+
+    /**
+     * @return MOTION_FILTER_*
+     */
+    public int getMotionFilter() {
+        return Integer.parseInt(mSharedPreferences.getString(KEY_MOTION_FILTER,
+                Integer.toString(MOTION_FILTER_CLASSIC)));
+    }
+
     public int getMotionThreshold() {
         int v= mSharedPreferences.getInt(
                 Preferences.KEY_MOTION_THRESHOLD, MOTION_THRESHOLD_DEFAULT);
         return constraint (v, MOTION_THRESHOLD_MIN, MOTION_THRESHOLD_MAX);
     }
 
+    /**
+     * @return prediction horizon of the motion in ms (0 disabled)
+     */
+    public int getMotionPrediction() {
+        int v= mSharedPreferences.getInt(
+                Preferences.KEY_MOTION_PREDICTION, MOTION_PREDICTION_DEFAULT);
+        // the setting is in centiseconds
+        return 10 * constraint (v, MOTION_PREDICTION_MIN, MOTION_PREDICTION_MAX);
+    }
+
     public boolean getSoundOnClick() {
         return mSharedPreferences.getBoolean(
                 Preferences.KEY_SOUND_ON_CLICK, SOUND_ON_CLICK_DEFAULT);
@@ -349,6 +387,38 @@ public class Preferences {
         return UseCamera2API.AUTO;
     }
 
+    // Frame recording is a debugging aid, never enabled in release builds
+    public boolean getRecordFrames() {
+        return BuildConfig.DEBUG && mSharedPreferences.getBoolean(KEY_RECORD_FRAMES, false);
+    }
+
+    public boolean getIdleFrameRate() {
+        return mSharedPreferences.getBoolean(KEY_IDLE_FRAME_RATE, true);
+    }
+
+    /**
+     * @return max frames per second of the camera preview, 0 means no limit
+     */
+    public int getPreviewFrameRate() {
+        return Integer.parseInt(mSharedPreferences.getString(KEY_PREVIEW_FRAME_RATE, "10"));
+    }
+
+    /**
+     * @return VisionPipeline.CPU_LOWEST .. CPU_HIGHEST or CPU_AUTO
+     */
+    public int getCpuUsage() {
+        return Integer.parseInt(mSharedPreferences.getString(KEY_CPU_USAGE,
+                Integer.toString(VisionPipeline.CPU_AUTO)));
+    }
+
+    /**
+     * @return VisionPipeline.ESTIMATOR_*
+     */
+    public int getMotionEstimator() {
+        return Integer.parseInt(mSharedPreferences.getString(KEY_MOTION_ESTIMATOR,
+                Integer.toString(VisionPipeline.ESTIMATOR_SPARSE_LK)));
+    }
+
     public int getGamepadLocation() {
         return Integer.parseInt(mSharedPreferences.getString(KEY_GAMEPAD_LOCATION, null));
     }
@@ -0,0 +1,107 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.crea_si.eviacam.common;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timings of the stages of the engine startup, for diagnostics (see TechInfoActivity)
+ *
+ * Two kinds of values are kept: the duration of a stage (see end) and the
+ * time elapsed since the startup began when something happens (see mark).
+ * Stages can be timed from several threads.
+ */
+public class StartupTimings {
+    // durations (ns) by stage, in insertion order
+    private static final Map<String, Long> sDurations= new LinkedHashMap<>();
+
+    // time elapsed (ns) since begin by event, in insertion order
+    private static final Map<String, Long> sMarks= new LinkedHashMap<>();
+
+    // time when the startup began (ns), 0 if not begun
+    private static long sBeginTime;
+
+    /**
+     * Forget the previous timings, to be called when the startup begins
+     */
+    public static synchronized void begin() {
+        sDurations.clear();
+        sMarks.clear();
+        sBeginTime= System.nanoTime();
+    }
+
+    /**
+     * @return time to be passed to end when a stage starts
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the duration of a stage
+     *
+     * @param stage name of the stage
+     * @param start time when the stage started (see now)
+     */
+    public static void end(@NonNull String stage, long start) {
+        long duration= System.nanoTime() - start;
+        synchronized (StartupTimings.class) {
+            sDurations.put(stage, duration);
+        }
+        Log.i(EVIACAM.TAG, "Startup: " + stage + " " + duration / 1000000L + " ms");
+    }
+
+    /**
+     * Record the time elapsed since the startup began. Only the first time
+     * an event happens after begin is recorded.
+     *
+     * @param event name of the event
+     */
+    public static synchronized void mark(@NonNull String event) {
+        if (sBeginTime == 0 || sMarks.containsKey(event)) return;
+        long elapsed= System.nanoTime() - sBeginTime;
+        sMarks.put(event, elapsed);
+        Log.i(EVIACAM.TAG, "Startup: " + event + " at " + elapsed / 1000000L + " ms");
+    }
+
+    /**
+     * @return one line per stage or event
+     */
+    @NonNull
+    public static synchronized String format() {
+        if (sBeginTime == 0) return "not started\n";
+
+        StringBuilder sb= new StringBuilder();
+        sb.append("stage: duration (ms)\n");
+        for (Map.Entry<String, Long> e : sDurations.entrySet()) {
+            sb.append(e.getKey()).append(": ").append(e.getValue() / 1000000L).append("\n");
+        }
+        sb.append("event: since startup (ms)\n");
+        for (Map.Entry<String, Long> e : sMarks.entrySet()) {
+            sb.append(e.getKey()).append(": ").append(e.getValue() / 1000000L).append("\n");
+        }
+
+        return sb.toString();
+    }
+}
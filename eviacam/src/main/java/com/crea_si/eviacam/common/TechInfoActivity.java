@@ -29,7 +29,9 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.crea_si.eviacam.BuildConfig;
+import com.crea_si.eviacam.EngineSelector;
 import com.crea_si.eviacam.R;
+import com.crea_si.eviacam.camera.FrameStats;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -84,6 +86,44 @@ public class TechInfoActivity extends Activity {
         return log.toString();
     }
 
+    /**
+     * Format the per-stage latency statistics of the vision pipeline
+     * @param pipeline pipeline of the engine, null when the engine is not running
+     * @return string with one line per stage
+     */
+    private String readPipelineStats(VisionPipeline pipeline) {
+        long[] stats= new long[VisionPipeline.NUM_STAGES * VisionPipeline.NUM_STATS];
+        int count= (pipeline == null? 0 : pipeline.getStats(stats));
+
+        if (count< stats.length) return "not running\n";
+
+        StringBuilder sb= new StringBuilder();
+        sb.append("stage: n p50 p90 p99 max (us)\n");
+        for (int stage= 0; stage< VisionPipeline.NUM_STAGES; stage++) {
+            int base= stage * VisionPipeline.NUM_STATS;
+            sb.append(VisionPipeline.STAGE_NAMES[stage]).append(": ")
+              .append(stats[base + VisionPipeline.STAT_COUNT]).append(" ")
+              .append(stats[base + VisionPipeline.STAT_P50]).append(" ")
+              .append(stats[base + VisionPipeline.STAT_P90]).append(" ")
+              .append(stats[base + VisionPipeline.STAT_P99]).append(" ")
+              .append(stats[base + VisionPipeline.STAT_MAX]).append("\n");
+        }
+        sb.append("detector cpu usage: ").append(pipeline.getDetectorCpuUsage()).append("\n");
+
+        return sb.toString();
+    }
+
+    /**
+     * Format the counters of the frames captured by the camera
+     * @param stats counters of the engine, null when the engine is not running
+     * @return string with one line per counter
+     */
+    private String readFrameStats(FrameStats stats) {
+        if (stats == null) return "not running\n";
+
+        return stats.format();
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -111,6 +151,12 @@ public class TechInfoActivity extends Activity {
         info+= "\nHARDWARE: " + Build.HARDWARE;
         info+= "\nPRODUCT: " + Build.PRODUCT;
         info+= "\nBOARD: " + Build.BOARD;
+        info+= "\nSTARTUP TIMINGS:\n" + StartupTimings.format();
+        // onCreate runs on the main thread, as the engine cleanup, so these stay valid here
+        Engine engine= EngineSelector.getEngine();
+        info+= "\nPIPELINE LATENCY:\n" +
+                readPipelineStats(engine == null? null : engine.getVisionPipeline());
+        info+= "\nCAPTURE:\n" + readFrameStats(engine == null? null : engine.getFrameStats());
         info+= "\nLOGCAT:\n" + readLogcat(150);
 
         //info+= "\nSERIAL: " + Build.SERIAL;
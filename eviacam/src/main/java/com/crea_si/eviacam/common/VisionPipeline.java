@@ -19,34 +19,302 @@
 
  package com.crea_si.eviacam.common;
 
-import android.graphics.PointF;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
+import java.nio.ByteBuffer;
+
+/**
+ * Java side of a native vision pipeline.
+ *
+ * Thread safety: frames are processed from the camera thread while the stats, the CPU usage
+ * and the feedback are read from other threads, which the native pipeline supports. The
+ * native object, however, is deleted by cleanup, so cleanup must only be called once frame
+ * processing, preview rendering and cascade loading have been stopped (see Camera.cleanup).
+ * Calls made after cleanup are ignored.
+ */
 public class VisionPipeline {
+    /*
+     * Pipeline stages for which latency statistics are collected.
+     * Must match VisionPipeline::EStage (native side)
+     */
+    public static final int STAGE_TOTAL= 0;
+    public static final int STAGE_COLOR= 1;
+    public static final int STAGE_ROTATION= 2;
+    public static final int STAGE_FEATURES= 3;
+    public static final int STAGE_SUBPIX= 4;
+    public static final int STAGE_OPTICAL_FLOW= 5;
+    public static final int STAGE_FACE_SUBMIT= 6;
+    public static final int STAGE_FACE_DETECTION= 7;
+    public static final int STAGE_PYRAMID= 8;
+    public static final int NUM_STAGES= 9;
+
+    public static final String[] STAGE_NAMES= {
+            "total", "color", "rotation", "features", "subpix", "motion",
+            "face submit", "face detection", "prepare" };
+
+    /*
+     * Values reported for each stage. Latencies are in microseconds.
+     * Must match VisionPipeline::EStat (native side)
+     */
+    public static final int STAT_COUNT= 0;
+    public static final int STAT_P50= 1;
+    public static final int STAT_P90= 2;
+    public static final int STAT_P99= 3;
+    public static final int STAT_MAX= 4;
+    public static final int NUM_STATS= 5;
+
+    /*
+     * CPU usage of the face detector, from the longest detection period (CPU_LOWEST)
+     * to continuous detection (CPU_HIGHEST). With CPU_AUTO the period is chosen
+     * from the tracking headroom, the power state and the tracking quality.
+     * Must match VisionPipeline::ECpuUsage (native side)
+     */
+    public static final int CPU_LOWEST= 0;
+    public static final int CPU_LOW= 1;
+    public static final int CPU_NORMAL= 2;
+    public static final int CPU_HIGH= 3;
+    public static final int CPU_HIGHEST= 4;
+    public static final int CPU_AUTO= 5;
+
+    /*
+     * Motion estimation backends. Must match MotionEstimator::EType (native side)
+     *
+     * SPARSE_LK: Lucas-Kanade optical flow over a few features
+     * PHASE_CORRELATION: FFT phase correlation of the face region, constant cost
+     * TEMPLATE_MATCHING: normalized cross correlation of a few small patches
+     */
+    public static final int ESTIMATOR_SPARSE_LK= 0;
+    public static final int ESTIMATOR_PHASE_CORRELATION= 1;
+    public static final int ESTIMATOR_TEMPLATE_MATCHING= 2;
+
+    // handle of the native pipeline, 0 after cleanup (read from several threads)
+    private volatile long mHandle;
+
     /**
-     * Initialize JNI part.
-     * Must be called after initializing OpenCV and before start processing frames
+     * Create a native pipeline. Several pipelines can coexist.
+     * Must be called after initializing OpenCV and loading the native library
+     *
      * @param cascadeName file path where the haar-cascade file resides
      */
-    public static native void init (String cascadeName);
+    public VisionPipeline (String cascadeName) {
+        mHandle= nativeInit(cascadeName);
+    }
 
     /**
-     * Clean-up JNI part
+     * Load the haar-cascade of the face detector when the pipeline has been
+     * created without it (empty cascadeName). Can be called from any thread
+     * but before processing frames.
+     *
+     * @param cascadeName file path where the haar-cascade file resides, either XML or
+     *                    the binary form saved by loadCascadeText
+     * @return false on error, the face is not detected in that case
      */
-    public static native void cleanup ();
+    public boolean loadCascade (String cascadeName) {
+        return nativeLoadCascade(mHandle, cascadeName);
+    }
 
     /**
-     * Entry point to process camera frames
+     * Same as loadCascade but the XML is given in memory
      *
-     * @param matAddrGr OpenCV image pointer (mat.getNativeObjAddr())
-     * @param rotation rotation (clockwise) in degrees that needs to be applied to the image
-     *     before processing it so that the subject appears right.
-     *     Valid values: 0, 90, 180, 270.
+     * @param text XML of the haar-cascade
+     * @param cachePath file path where the parsed haar-cascade is saved in a binary form
+     *                  which loadCascade reads much faster, or null
+     * @return false on error, the face is not detected in that case
+     */
+    public boolean loadCascadeText (@NonNull byte[] text, @Nullable String cachePath) {
+        return nativeLoadCascadeText(mHandle, text, cachePath);
+    }
+
+    /**
+     * Free the native pipeline. The object cannot be used afterwards.
+     * Call only when no other thread is using the pipeline (see class comment).
+     */
+    public synchronized void cleanup () {
+        final long handle= mHandle;
+        if (handle == 0) return;
+        // clear the handle first so that late calls are ignored
+        mHandle= 0;
+        nativeCleanup(handle);
+    }
+
+    /**
+     * Entry point to process gray camera frames. The image is not modified, use drawFeedback
+     * to draw the feedback on the preview image.
+     *
+     * @param matAddrGray OpenCV single channel image pointer (mat.getNativeObjAddr()).
+     *                    Can be a submatrix (e.g. the luma rows of a NV21 frame)
      * @param flip flip operation before rotation
      *     NONE       (0): no flip
      *     VERTICAL   (1): vertical flip (around X-axis)
      *     HORIZONTAL (2): horizontal flip (around Y-axis)
-     * @param vel is updated with the extracted motion for each axis
+     * @param rotation rotation (clockwise) in degrees that needs to be applied to the image
+     *     before processing it so that the subject appears right.
+     *     Valid values: 0, 90, 180, 270.
+     * @param motion array of at least 2 elements updated with the extracted motion (x, y)
+     * @return true if face detected in the last frame (or few frames ago)
+     */
+    public boolean processGrayFrame (long matAddrGray, int flip, int rotation, float[] motion) {
+        return nativeProcessGrayFrame(mHandle, matAddrGray, flip, rotation, motion);
+    }
+
+    /**
+     * Entry point to process the luma (Y) plane of a YUV camera frame. The buffer is
+     * read in place (no copy, no color conversion) and it is not modified. Use drawFeedback
+     * to draw the feedback on the preview image.
+     *
+     * @param luma direct buffer with the luma plane (e.g. plane 0 of a YUV_420_888 image)
+     * @param width width of the frame in pixels
+     * @param height height of the frame in pixels
+     * @param rowStride distance in bytes between the start of two consecutive rows
+     * @param flip flip operation before rotation (see processGrayFrame)
+     * @param rotation rotation (clockwise) in degrees (see processGrayFrame)
+     * @param motion array of at least 2 elements updated with the extracted motion (x, y)
      * @return true if face detected in the last frame (or few frames ago)
      */
-    public static native boolean processFrame (long matAddrGr, int flip, int rotation, PointF vel);
+    public boolean processLumaBuffer (ByteBuffer luma, int width, int height, int rowStride,
+                                      int flip, int rotation, float[] motion) {
+        return nativeProcessLumaBuffer(mHandle, luma, width, height, rowStride,
+                flip, rotation, motion);
+    }
+
+    /**
+     * Draw the feedback of the last processed frame. Must be called from the thread
+     * that processes the frames.
+     *
+     * @param matAddr OpenCV image pointer (mat.getNativeObjAddr()) of the preview image,
+     *                which should have the same size than the processed frame
+     */
+    public void drawFeedback (long matAddr) {
+        nativeDrawFeedback(mHandle, matAddr);
+    }
+
+    /**
+     * Get the feedback of the last processed frame to draw it later with
+     * drawFeedback(long, int[]). Must be called from the thread that processes the frames.
+     *
+     * @param center array of at least 2 elements where the centre of the tracking area
+     *               (preview image coordinates) is written
+     * @return false if there is no feedback to draw
+     */
+    public boolean getFeedback (@NonNull int[] center) {
+        return nativeGetFeedback(mHandle, center);
+    }
+
+    /**
+     * Draw the feedback got with getFeedback. Can be called from any thread.
+     *
+     * @param matAddr OpenCV image pointer (mat.getNativeObjAddr()) of the preview image
+     * @param center centre of the tracking area got with getFeedback
+     */
+    public static void drawFeedback (long matAddr, @NonNull int[] center) {
+        nativeDrawFeedbackAt(matAddr, center[0], center[1]);
+    }
+
+    /**
+     * Get the per-stage latency statistics collected since the pipeline was created
+     * or since the last call to resetStats
+     *
+     * @param out array of at least NUM_STAGES * NUM_STATS elements. For each stage,
+     *            NUM_STATS consecutive values are written (see STAT_* constants)
+     * @return number of values written
+     */
+    public synchronized int getStats (long[] out) {
+        return nativeGetStats(mHandle, out);
+    }
+
+    /**
+     * Reset the latency statistics
+     */
+    public synchronized void resetStats () {
+        nativeResetStats(mHandle);
+    }
+
+    /**
+     * Set the CPU usage of the face detector
+     *
+     * @param value CPU_LOWEST .. CPU_HIGHEST or CPU_AUTO
+     */
+    public void setCpuUsage (int value) {
+        nativeSetCpuUsage(mHandle, value);
+    }
+
+    /**
+     * Get the CPU usage setting of the face detector
+     *
+     * @return CPU_LOWEST .. CPU_HIGHEST or CPU_AUTO
+     */
+    public int getCpuUsage () {
+        return nativeGetCpuUsage(mHandle, false);
+    }
+
+    /**
+     * Get the CPU usage the face detector is actually using. Differs from
+     * getCpuUsage in auto mode.
+     *
+     * @return CPU_LOWEST .. CPU_HIGHEST
+     */
+    public synchronized int getDetectorCpuUsage () {
+        return nativeGetCpuUsage(mHandle, true);
+    }
+
+    /**
+     * Notify whether the device runs on a low battery or in power saving mode,
+     * so that the detector duty cycle is lowered in auto mode
+     */
+    public void setPowerConstrained (boolean value) {
+        nativeSetPowerConstrained(mHandle, value);
+    }
+
+    /**
+     * Enter or leave standby. In standby only the face detector runs (the
+     * motion is always zero) and standby is left on the frame a face is found.
+     *
+     * @param state true to enter standby
+     * @param cpuUsage CPU usage of the face detector in standby, CPU_LOWEST .. CPU_HIGHEST
+     */
+    public void setStandby (boolean state, int cpuUsage) {
+        nativeSetStandby(mHandle, state, cpuUsage);
+    }
+
+    /**
+     * @return true while in standby (false once a face has been found)
+     */
+    public boolean getStandby () {
+        return nativeGetStandby(mHandle);
+    }
+
+    /**
+     * Select the motion estimation backend. Takes effect on the next frame.
+     *
+     * @param type ESTIMATOR_SPARSE_LK, ESTIMATOR_PHASE_CORRELATION or ESTIMATOR_TEMPLATE_MATCHING
+     */
+    public void setMotionEstimator (int type) {
+        nativeSetMotionEstimator(mHandle, type);
+    }
+
+    /*
+     * Native methods. Calls with a 0 handle are ignored.
+     */
+    private static native long nativeInit (String cascadeName);
+    private static native void nativeCleanup (long handle);
+    private static native boolean nativeLoadCascade (long handle, String cascadeName);
+    private static native boolean nativeLoadCascadeText (long handle, byte[] text,
+                                                         String cachePath);
+    private static native boolean nativeProcessGrayFrame (long handle, long matAddrGray,
+                                                          int flip, int rotation, float[] motion);
+    private static native boolean nativeProcessLumaBuffer (long handle, ByteBuffer luma,
+                                                           int width, int height, int rowStride,
+                                                           int flip, int rotation, float[] motion);
+    private static native void nativeDrawFeedback (long handle, long matAddr);
+    private static native boolean nativeGetFeedback (long handle, int[] center);
+    private static native void nativeDrawFeedbackAt (long matAddr, int x, int y);
+    private static native int nativeGetStats (long handle, long[] out);
+    private static native void nativeResetStats (long handle);
+    private static native void nativeSetCpuUsage (long handle, int value);
+    private static native int nativeGetCpuUsage (long handle, boolean detector);
+    private static native void nativeSetPowerConstrained (long handle, boolean value);
+    private static native void nativeSetStandby (long handle, boolean state, int cpuUsage);
+    private static native boolean nativeGetStandby (long handle);
+    private static native void nativeSetMotionEstimator (long handle, int type);
 }
@@ -0,0 +1,112 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.crea_si.eviacam.common;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+/**
+ * Applies the vision pipeline settings (face detector CPU usage and motion
+ * estimator) and, for the automatic CPU usage mode, keeps the pipeline
+ * informed of the power state of the device
+ */
+class VisionPipelineControl extends BroadcastReceiver implements OnSharedPreferenceChangeListener {
+    // battery level (percentage) below which power is considered constrained
+    private static final int LOW_BATTERY_LEVEL= 20;
+
+    private final Context mContext;
+    private final VisionPipeline mVisionPipeline;
+
+    // last battery state received
+    private boolean mBatteryLow= false;
+    private boolean mPowerConstrained= false;
+
+    VisionPipelineControl(@NonNull Context c, @NonNull VisionPipeline vp) {
+        mContext= c;
+        mVisionPipeline= vp;
+
+        // register preference change listener
+        Preferences.get().getSharedPreferences().registerOnSharedPreferenceChangeListener(this);
+
+        updateSettings();
+
+        /*
+         * Battery changes are sticky, the current state is received at once
+         */
+        IntentFilter filter= new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+        if (Build.VERSION.SDK_INT>= 21) {
+            filter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+        }
+        c.registerReceiver(this, filter);
+    }
+
+    // clean-up object
+    void cleanup() {
+        mContext.unregisterReceiver(this);
+        Preferences.get().getSharedPreferences().unregisterOnSharedPreferenceChangeListener(this);
+    }
+
+    private void updateSettings() {
+        mVisionPipeline.setCpuUsage(Preferences.get().getCpuUsage());
+        mVisionPipeline.setMotionEstimator(Preferences.get().getMotionEstimator());
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (key.equals(Preferences.KEY_CPU_USAGE) ||
+            key.equals(Preferences.KEY_MOTION_ESTIMATOR)) {
+            updateSettings();
+        }
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+            int level= intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale= intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            boolean plugged= intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0)!= 0;
+            mBatteryLow= !plugged && level>= 0 && scale> 0 &&
+                    level * 100 / scale<= LOW_BATTERY_LEVEL;
+        }
+
+        boolean constrained= mBatteryLow || isPowerSaveMode();
+        if (constrained!= mPowerConstrained) {
+            mPowerConstrained= constrained;
+            Log.i(EVIACAM.TAG, "VisionPipelineControl: power constrained " + constrained);
+        }
+        mVisionPipeline.setPowerConstrained(constrained);
+    }
+
+    @TargetApi(21)
+    private boolean isPowerSaveMode() {
+        if (Build.VERSION.SDK_INT< 21) return false;
+        PowerManager pm= (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        return pm.isPowerSaveMode();
+    }
+}
@@ -174,10 +174,10 @@ public class Gamepad implements MotionProcessor {
      */
     
     @Override
-    public void processMotion(@NonNull PointF motion) {
+    public void processMotion(@NonNull PointF motion, float period) {
         if (isPaused) return;
         if (mOperationMode== SlaveMode.GAMEPAD_ABSOLUTE) {
-            processMotionAbsoluteGamepad(motion);
+            processMotionAbsoluteGamepad(motion, period);
         }
         else {
             processMotionRelativeGamepad(motion);
@@ -212,9 +212,9 @@ public class Gamepad implements MotionProcessor {
      * Absolute gamepad motion processing
      */
     private PointF ptrLocation= new PointF();
-    private void processMotionAbsoluteGamepad(PointF motion) {
+    private void processMotionAbsoluteGamepad(PointF motion, float period) {
         // update pointer location given face motion
-        int button= mGamepadAbs.updateMotion(motion);
+        int button= mGamepadAbs.updateMotion(motion, period);
 
         // get new pointer location
         mGamepadView.toCanvasCoords(mGamepadAbs.getPointerLocationNorm(), ptrLocation);
@@ -38,7 +38,7 @@ class GamepadAbs implements OnSharedPreferenceChangeListener {
     // Current pointer position
     private PointF mPointerLocation= new PointF(0, 0);
 
-    // Speed multiplier for the pointer control
+    // Speed multiplier for the pointer control (radius per pixel of motion)
     private float mPointerSpeed= 0.05f;
 
     GamepadAbs() {
@@ -69,12 +69,13 @@ class GamepadAbs implements OnSharedPreferenceChangeListener {
      * Updates internal pointer location ensuring that
      * never goes outside the circumference 
      * 
-     * @param motion motion vector
+     * @param motion motion vector (pixels per second)
+     * @param period time elapsed since the previous frame (s)
      * @return the sector (i.e. button) in which the pointer is
      */
-    int updateMotion (PointF motion) {
-        mPointerLocation.x+= motion.x * mPointerSpeed;
-        mPointerLocation.y+= motion.y * mPointerSpeed;
+    int updateMotion (PointF motion, float period) {
+        mPointerLocation.x+= motion.x * period * mPointerSpeed;
+        mPointerLocation.y+= motion.y * period * mPointerSpeed;
 
         /*
          * Restrict pointer inside the circle
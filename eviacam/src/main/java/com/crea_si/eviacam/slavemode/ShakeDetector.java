@@ -22,6 +22,7 @@ package com.crea_si.eviacam.slavemode;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 
+import com.crea_si.eviacam.common.MotionProcessor;
 import com.crea_si.eviacam.common.Preferences;
 
 /**
@@ -40,7 +41,7 @@ class ShakeDetector implements OnSharedPreferenceChangeListener {
     private static final int BOUNCE= 2;
     private static final int BOUNCE_2= 3;
 
-    // The threshold
+    // The threshold (pixels per second)
     private float mThreshold;
 
     // Previous value
@@ -94,8 +95,9 @@ class ShakeDetector implements OnSharedPreferenceChangeListener {
         // Get values from shared resources
         final float x= (float) Preferences.get().getGamepadRelSensitivity();
 
-        // Compute threshold
-        mThreshold= (float) (A * Math.exp(x*0.1*Math.log((A+1.0)/A))-A);
+        // Compute threshold, the formula gives pixels per frame at the reference rate
+        mThreshold= (float) (A * Math.exp(x*0.1*Math.log((A+1.0)/A))-A) *
+                MotionProcessor.REFERENCE_FRAME_RATE;
     }
 
     @Override
@@ -108,7 +110,7 @@ class ShakeDetector implements OnSharedPreferenceChangeListener {
     /**
      * Update the value
      * 
-     * @param v new motion value
+     * @param v new motion value (pixels per second)
      * @return 0 if no shake detected
      *         1 if shake detected (positive direction)
      *        -1 if shake detected (negative direction)
@@ -286,17 +286,20 @@ public class SlaveModeEngineImpl extends CoreEngine implements SlaveModeEngine,
     /**
      * Process motion events
      *
-     * @param motion motion vector, could be (0, 0) if motion not detected or the engine is
-     *               paused or in standby mode
+     * @param motion motion vector (pixels per second), could be (0, 0) if motion not detected
+     *               or the engine is paused or in standby mode
+     * @param timestamp capture time of the frame (ns)
+     * @param period time elapsed since the previous frame (s)
      * @param faceDetected whether or not a face was detected for the last frame, note
      *                     not all frames are checked for the face detection algorithm
      * @param state current state of the engine
      */
     @Override
-    protected void onFrame(@NonNull PointF motion, boolean faceDetected, int state) {
+    protected void onFrame(@NonNull PointF motion, long timestamp, float period,
+                           boolean faceDetected, int state) {
         if (mCurrentMotionProcessor!= null) {
             if (state == STATE_RUNNING) {
-                mCurrentMotionProcessor.processMotion(motion);
+                mCurrentMotionProcessor.processMotion(motion, period);
             }
         }
     }
@@ -218,6 +218,11 @@ public abstract class MyCameraBridgeViewBase extends SurfaceView implements Surf
          * This method returns single channel gray scale Mat with frame
          */
         public Mat gray();
+
+        /**
+         * This method returns the time (System.nanoTime) when the frame was received
+         */
+        public long timestamp();
     };
 
     public void surfaceChanged(SurfaceHolder arg0, int arg1, int arg2, int arg3) {
@@ -595,6 +600,14 @@ public abstract class MyCameraBridgeViewBase extends SurfaceView implements Surf
         return new Size(calcWidth, calcHeight);
     }
 
+    /**
+     * Switch between the normal and a lower capture frame rate
+     * (to save power when nothing happens). Ignored by default.
+     * @param idle true to select the lower frame rate
+     */
+    public void setIdleFrameRate(boolean idle) {
+    }
+
     /**
      * Enable or disable camera viewer refresh to save CPU cycles
      * @param v true to enable update, false to disable
@@ -602,4 +615,12 @@ public abstract class MyCameraBridgeViewBase extends SurfaceView implements Surf
     public void setUpdateViewer(boolean v) {
         mUpdateViewer = v;
     }
+
+    /**
+     * Get whether the frames delivered will be actually drawn on the viewer
+     * @return true when the viewer needs to be refreshed
+     */
+    public boolean getUpdateViewer() {
+        return mUpdateViewer && getVisibility() == VISIBLE;
+    }
 }
@@ -13,6 +13,7 @@ import android.util.Log;
 import android.view.ViewGroup.LayoutParams;
 
 import com.crea_si.eviacam.R;
+import com.crea_si.eviacam.camera.FrameStats;
 
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
@@ -27,8 +28,8 @@ import java.util.List;
  * required functions:
  * connectCamera - opens Java camera and sets the PreviewCallback to be delivered.
  * disconnectCamera - closes the camera and stops preview.
- * When frame is delivered via callback from Camera - it processed via OpenCV to be
- * converted to RGBA32 and then passed to the external callback for modifications if required.
+ * When frame is delivered via callback from Camera - it is passed to the external callback
+ * which can get the luma plane (without copying) or convert it to RGBA32 when required.
  */
 public class MyJavaCameraView extends MyCameraBridgeViewBase implements PreviewCallback {
 
@@ -42,6 +43,17 @@ public class MyJavaCameraView extends MyCameraBridgeViewBase implements PreviewC
     private boolean mStopThread;
     private boolean mWhiteBalanceLockTried= false;
 
+    /* Frame counters, null if not needed */
+    private volatile FrameStats mFrameStats;
+
+    /* Lowest frame rate (fps * 1000) accepted when idle */
+    private static final int IDLE_MIN_FPS = 8000;
+
+    /* Frame rate ranges when active and when idle (null if not available) */
+    private int[] mActiveFpsRange;
+    private int[] mIdleFpsRange;
+    private boolean mIdle;
+
     protected Camera mCamera;
     protected JavaCameraFrame[] mCameraFrame;
     private SurfaceTexture mSurfaceTexture;
@@ -216,6 +228,9 @@ public class MyJavaCameraView extends MyCameraBridgeViewBase implements PreviewC
                     winner= i;
                 }
                 params.setPreviewFpsRange(ranges.get(winner)[0], ranges.get(winner)[1]);
+                mActiveFpsRange= ranges.get(winner);
+                mIdleFpsRange= selectIdleFpsRange(ranges, mActiveFpsRange);
+                mIdle= false;
 
                 mCamera.setParameters(params);
                 params = mCamera.getParameters();
@@ -352,10 +367,68 @@ public class MyJavaCameraView extends MyCameraBridgeViewBase implements PreviewC
         mCameraFrameReady = false;
     }
 
+    /**
+     * Pick the range with the lowest maximum frame rate (but not too low) to use when idle
+     *
+     * @return the range or null if there is no range slower than the active one
+     */
+    private static int[] selectIdleFpsRange(List<int[]> ranges, int[] active) {
+        int[] idle= null;
+        for (int[] r : ranges) {
+            if (r[1]< IDLE_MIN_FPS || r[1]>= active[1]) continue;
+            // the lowest maximum, then the highest minimum (steadier rate)
+            if (idle == null || r[1]< idle[1] || (r[1] == idle[1] && r[0]> idle[0])) idle= r;
+        }
+        return idle;
+    }
+
+    /**
+     * Switch between the active and the (lower) idle frame rate
+     *
+     * @param idle true to select the idle frame rate
+     */
+    @Override
+    public void setIdleFrameRate(boolean idle) {
+        synchronized (this) {
+            if (mCamera == null || mIdleFpsRange == null || idle == mIdle) return;
+            int[] range= (idle? mIdleFpsRange : mActiveFpsRange);
+            try {
+                Camera.Parameters params = mCamera.getParameters();
+                params.setPreviewFpsRange(range[0], range[1]);
+                mCamera.setParameters(params);
+                mIdle= idle;
+            }
+            catch (RuntimeException e) {
+                // some devices refuse to change the rate while previewing, do not insist
+                Log.w(TAG, "Cannot change the preview frame rate: " + e.getMessage());
+                mIdleFpsRange= null;
+            }
+        }
+    }
+
+    /**
+     * Set the counters of the captured, processed and dropped frames
+     *
+     * @param stats counters, null to stop counting
+     */
+    public void setFrameStats(FrameStats stats) {
+        mFrameStats= stats;
+    }
+
     @Override
     public void onPreviewFrame(byte[] frame, Camera arg1) {
+        FrameStats stats= mFrameStats;
         synchronized (this) {
+            /*
+             * Latest-only policy: a frame not yet taken by the worker is overwritten,
+             * the worker always gets the most recent one
+             */
+            if (stats != null) {
+                stats.frameCaptured();
+                if (mCameraFrameReady) stats.frameDropped();
+            }
             mFrameChain[mChainIdx].put(0, 0, frame);
+            mCameraFrame[mChainIdx].mTimestamp= System.nanoTime();
             mCameraFrameReady = true;
             this.notify();
             /*
@@ -377,7 +450,7 @@ public class MyJavaCameraView extends MyCameraBridgeViewBase implements PreviewC
     private class JavaCameraFrame implements CvCameraViewFrame {
         @Override
         public Mat gray() {
-            return mYuvFrameData.submat(0, mHeight, 0, mWidth);
+            return mGray;
         }
 
         @Override
@@ -386,20 +459,30 @@ public class MyJavaCameraView extends MyCameraBridgeViewBase implements PreviewC
             return mRgba;
         }
 
+        @Override
+        public long timestamp() {
+            return mTimestamp;
+        }
+
         public JavaCameraFrame(Mat Yuv420sp, int width, int height) {
             super();
             mWidth = width;
             mHeight = height;
             mYuvFrameData = Yuv420sp;
+            // Luma plane of the NV21 frame. No data is copied.
+            mGray = mYuvFrameData.submat(0, mHeight, 0, mWidth);
             mRgba = new Mat();
         }
 
         public void release() {
+            mGray.release();
             mRgba.release();
         }
 
         private Mat mYuvFrameData;
+        private Mat mGray;
         private Mat mRgba;
+        private long mTimestamp;
         private int mWidth;
         private int mHeight;
     };
@@ -10,8 +10,16 @@ include $(OPENCV_ANDROID_SDK)/native/jni/OpenCV.mk
 LOCAL_MODULE    := visionpipeline
 LOCAL_SRC_FILES := crvimage.cpp \
 	timeutil.cpp \
+	latencystats.cpp \
 	normroi2.cpp \
+	orientation.cpp \
+	cpugovernor.cpp \
+	haarcascadeio.cpp \
 	facedetection.cpp \
+	motionestimator.cpp \
+	sparselkestimator.cpp \
+	phasecorrelationestimator.cpp \
+	templatematchingestimator.cpp \
 	visionpipeline.cpp \
 	visionpipeline_jni.cpp  
 LOCAL_LDLIBS    += -lm -llog -landroid
@@ -0,0 +1,126 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include "cpugovernor.h"
+
+namespace eviacam {
+
+// weight of the new samples in the averages
+#define AVERAGE_WEIGHT 0.1f
+
+// samples needed before trusting the headroom estimate
+#define MIN_SAMPLES 10
+
+// gaps between frames longer than this (ns) are pauses, not frame periods
+#define MAX_FRAME_PERIOD 1000000000ULL
+
+// headroom thresholds
+#define LOW_HEADROOM 0.25f
+#define VERY_LOW_HEADROOM 0.1f
+#define HIGH_HEADROOM 0.6f
+
+// fraction of tracked features below which tracking is considered poor
+#define MIN_TRACKING_QUALITY 0.5f
+
+// frames tracked well before lowering the detector rate
+#define SETTLE_FRAMES 30
+
+CpuGovernor::CpuGovernor ()
+: m_powerConstrained(false)
+{
+	reset ();
+}
+
+void CpuGovernor::reset ()
+{
+	m_lastStart= 0;
+	m_periodAvg= 0;
+	m_busyAvg= 0;
+	m_numSamples= 0;
+	m_headroom= 1.0f;
+	m_faceFound= false;
+	m_goodFrames= 0;
+	m_cpuUsage= FaceDetection::CPU_NORMAL;
+}
+
+void CpuGovernor::detectionResult (bool faceFound)
+{
+	m_faceFound= faceFound;
+	if (!faceFound) m_goodFrames= 0;
+}
+
+FaceDetection::ECpuUsage CpuGovernor::update (unsigned long long start,
+	unsigned long long busy, float trackingQuality)
+{
+	/*
+	 * Headroom of the tracking thread
+	 */
+	if (m_lastStart && start> m_lastStart && start - m_lastStart< MAX_FRAME_PERIOD) {
+		float period= (float) (start - m_lastStart);
+		if (m_numSamples== 0) {
+			m_periodAvg= period;
+			m_busyAvg= (float) busy;
+		}
+		else {
+			m_periodAvg+= AVERAGE_WEIGHT * (period - m_periodAvg);
+			m_busyAvg+= AVERAGE_WEIGHT * ((float) busy - m_busyAvg);
+		}
+		m_numSamples++;
+
+		m_headroom= 1.0f - m_busyAvg / m_periodAvg;
+		if (m_headroom< 0) m_headroom= 0;
+	}
+	m_lastStart= start;
+
+	/*
+	 * Tracking quality
+	 */
+	if (m_faceFound && trackingQuality>= MIN_TRACKING_QUALITY) m_goodFrames++;
+	else m_goodFrames= 0;
+
+	/*
+	 * Choose the level
+	 */
+	int level;
+	if (m_goodFrames== 0) {
+		// face lost or poorly tracked, reacquire quickly
+		if (m_powerConstrained) level= FaceDetection::CPU_NORMAL;
+		else if (m_headroom>= HIGH_HEADROOM) level= FaceDetection::CPU_HIGHEST;
+		else level= FaceDetection::CPU_HIGH;
+	}
+	else if (m_goodFrames< SETTLE_FRAMES) {
+		level= (m_powerConstrained? FaceDetection::CPU_LOW : FaceDetection::CPU_NORMAL);
+	}
+	else {
+		level= (m_powerConstrained? FaceDetection::CPU_LOWEST : FaceDetection::CPU_LOW);
+	}
+
+	// leave time to the tracker when it is running out of time
+	if (m_numSamples>= MIN_SAMPLES) {
+		if (m_headroom< VERY_LOW_HEADROOM) level-= 2;
+		else if (m_headroom< LOW_HEADROOM) level-= 1;
+		if (level< FaceDetection::CPU_LOWEST) level= FaceDetection::CPU_LOWEST;
+	}
+
+	m_cpuUsage= (FaceDetection::ECpuUsage) level;
+
+	return m_cpuUsage;
+}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#ifndef CPUGOVERNOR_H
+#define CPUGOVERNOR_H
+
+#include "facedetection.h"
+
+namespace eviacam {
+
+/**
+ * Chooses the face detector CPU usage (i.e. its period) automatically
+ *
+ * Three inputs are considered:
+ *  - headroom of the tracking thread: fraction of the frame period not
+ *    spent processing the frame. With little headroom the detector is
+ *    slowed down so that it does not steal time from the tracker.
+ *  - power state: when the device runs on a low battery or in power
+ *    saving mode the detector duty cycle is lowered.
+ *  - tracking quality: while the face is not found or few features are
+ *    tracked the detector runs often to reacquire the face quickly. Once
+ *    the face has been tracked well for a while it runs rarely.
+ *
+ * Not thread safe, must be updated from the tracking thread (except
+ * setPowerConstrained, which only stores a flag).
+ */
+class CpuGovernor
+{
+public:
+	CpuGovernor ();
+
+	// Forget measurements (e.g. after a pause)
+	void reset ();
+
+	// Running on a low battery or in power saving mode
+	void setPowerConstrained (bool value) { m_powerConstrained= value; }
+	bool getPowerConstrained () const { return m_powerConstrained; }
+
+	// Notify the result of a face detection
+	void detectionResult (bool faceFound);
+
+	/**
+	 * Update with the measurements of a processed frame
+	 *
+	 * @param start time stamp (ns, CTimeUtil::GetNanoCount) when processing started
+	 * @param busy time (ns) spent processing the frame
+	 * @param trackingQuality fraction of features tracked (0..1)
+	 * @return detector CPU usage to use
+	 */
+	FaceDetection::ECpuUsage update (unsigned long long start, unsigned long long busy,
+		float trackingQuality);
+
+	// Last computed CPU usage
+	FaceDetection::ECpuUsage getCpuUsage () const { return m_cpuUsage; }
+
+	// Last estimated headroom (0..1)
+	float getHeadroom () const { return m_headroom; }
+
+private:
+	volatile bool m_powerConstrained;
+
+	// Exponential averages of the frame period and processing time (ns)
+	unsigned long long m_lastStart;
+	float m_periodAvg, m_busyAvg;
+	int m_numSamples;
+	float m_headroom;
+
+	// Tracking quality
+	bool m_faceFound;
+	int m_goodFrames;
+
+	FaceDetection::ECpuUsage m_cpuUsage;
+};
+
+}
+
+#endif
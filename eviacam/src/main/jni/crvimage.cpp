@@ -55,6 +55,7 @@ void CIplImage::Init()
 {
 	m_pIplImage= NULL;
 	m_importedImage= false;
+	m_capacity= 0;
 	m_importedROI= NULL;
 	m_roiStackPtr= 0;
 }
@@ -130,6 +131,45 @@ bool CIplImage::Create (int width, int height, unsigned int depth, const char *p
 		return false;
 	}
 
+	m_capacity= m_pIplImage->imageSize;
+
+	return true;
+}
+
+// Row size in bytes for a 8 bit single channel image (see cvCreateImageHeader)
+static inline int GrayWidthStep (int width)
+{
+	return (width + 3) & -4;
+}
+
+bool CIplImage::Reshape (int width, int height)
+{
+	int widthStep= GrayWidthStep (width);
+
+	if (m_pIplImage && !m_importedImage &&
+		m_pIplImage->nChannels== 1 && m_pIplImage->depth== IPL_DEPTH_8U &&
+		widthStep * height<= m_capacity) {
+		// re-point the header, keep the buffer
+		m_pIplImage->width= width;
+		m_pIplImage->height= height;
+		m_pIplImage->widthStep= widthStep;
+		m_pIplImage->imageSize= widthStep * height;
+		InitROIStack (width, height);
+		m_pIplImage->roi= &m_roiStack[0];
+
+		return false;
+	}
+
+	if (!Create (width, height, IPL_DEPTH_8U, "GRAY")) return false;
+
+	// enlarge the buffer so that the image fits in both orientations
+	int capacity= GrayWidthStep (height) * width;
+	if (capacity> m_capacity) {
+		cvReleaseData (m_pIplImage);
+		cvSetData (m_pIplImage, cvAlloc (capacity), widthStep);
+		m_capacity= capacity;
+	}
+
 	return true;
 }
 
@@ -185,6 +225,7 @@ void CIplImage::Swap (CIplImage *pOtherImg)
 	// Copy other image to tmp
 	IplImage *tmp_pIplImage= pOtherImg->m_pIplImage;
 	bool tmp_importedImage= pOtherImg->m_importedImage;
+	int tmp_capacity= pOtherImg->m_capacity;
 	IplROI *tmp_importedROI= pOtherImg->m_importedROI;
 	IplROI tmp_roiStack[ROI_STACK_SIZE];
 	int tmp_roiStackPtr= pOtherImg->m_roiStackPtr;
@@ -194,6 +235,7 @@ void CIplImage::Swap (CIplImage *pOtherImg)
 	// 'Copy' current to other
 	pOtherImg->m_pIplImage= m_pIplImage;
 	pOtherImg->m_importedImage= m_importedImage;
+	pOtherImg->m_capacity= m_capacity;
 	pOtherImg->m_importedROI= m_importedROI;
 	pOtherImg->m_roiStackPtr= m_roiStackPtr;
 	for (i= 0; i<= pOtherImg->m_roiStackPtr; i++) {
@@ -208,6 +250,7 @@ void CIplImage::Swap (CIplImage *pOtherImg)
 	// 'Copy' tmp to current
 	m_pIplImage= tmp_pIplImage;
 	m_importedImage= tmp_importedImage;
+	m_capacity= tmp_capacity;
 	m_importedROI= tmp_importedROI;
 	m_roiStackPtr= tmp_roiStackPtr;
 	for (i= 0; i<= m_roiStackPtr; i++) {
@@ -41,6 +41,12 @@ public:
 				int origin= IPL_ORIGIN_TL, int align= IPL_ALIGN_QWORD );
 
 	bool Import (IplImage *pImage);	// Imported images are not automatically released
+
+	// Change the size of a single channel 8 bit image. The current buffer is
+	// reused (no allocation) when large enough, otherwise a buffer with room
+	// for both orientations (width x height and height x width) is allocated.
+	// Contents are undefined afterwards. Returns true if reallocated.
+	bool Reshape (int width, int height);
 	
 	// Returns the internal pointer, which is set to NULL, and forgets 
 	// about its deallocation
@@ -87,6 +93,7 @@ private:
   // Attributes
 	IplImage *m_pIplImage;
 	bool m_importedImage;
+	int m_capacity;		// size in bytes of the buffer (own images)
 	IplROI *m_importedROI;
 	IplROI m_roiStack[ROI_STACK_SIZE];
 	int m_roiStackPtr;
@@ -0,0 +1,186 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Benchmark of the motion estimators in isolation. Host only, see CMakeLists.txt
+ *
+ * A sequence of working images is synthesized by moving an image (or a
+ * random texture when none is given) along a random walk with sub-pixel
+ * steps. Each estimator tracks the whole sequence and the error with
+ * respect to the true motion and the latency of each stage are printed.
+ */
+
+#include "motionestimator.h"
+#include "timeutil.h"
+
+#include <opencv2/core/core.hpp>
+#include <opencv2/imgproc/imgproc.hpp>
+#include <opencv2/highgui/highgui.hpp>
+
+#include <math.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <unistd.h>
+
+#include <algorithm>
+#include <vector>
+
+using namespace eviacam;
+
+static const char* STAGE_NAMES[MotionEstimator::NUM_STAGES]= {
+	"prepare", "features", "subpix", "match" };
+
+static void usage (const char* name)
+{
+	fprintf(stderr,
+		"usage: %s [options] [image]\n"
+		"  -n <n>     number of frames (default: 500)\n"
+		"  -s <px>    max motion per frame (default: 4)\n"
+		"  -w <size>  working image size (default: 128)\n",
+		name);
+}
+
+/*
+ * Build a textured image when no image is given
+ */
+static cv::Mat randomTexture (int size)
+{
+	cv::Mat noise(size / 4, size / 4, CV_8UC1);
+	cv::randu(noise, cv::Scalar(0), cv::Scalar(256));
+
+	cv::Mat texture;
+	cv::resize(noise, texture, cv::Size(size, size), 0, 0, cv::INTER_CUBIC);
+	cv::GaussianBlur(texture, texture, cv::Size(5, 5), 0);
+
+	return texture;
+}
+
+/*
+ * Crop a size x size image from source centered at center with sub-pixel precision
+ */
+static void crop (const cv::Mat& source, const cv::Point2f& center, int size, cv::Mat& dst)
+{
+	cv::getRectSubPix(source, cv::Size(size, size), center, dst);
+}
+
+int main (int argc, char* argv[])
+{
+	int numFrames= 500;
+	float maxStep= 4.0f;
+	int size= 128;
+
+	int opt;
+	while ((opt= getopt(argc, argv, "n:s:w:h"))!= -1) {
+		switch (opt) {
+		case 'n': numFrames= atoi(optarg); break;
+		case 's': maxStep= (float) atof(optarg); break;
+		case 'w': size= atoi(optarg); break;
+		default: usage(argv[0]); return 1;
+		}
+	}
+
+	if (optind< argc - 1 || numFrames< 2 || maxStep< 0 || size< 32) {
+		usage(argv[0]);
+		return 1;
+	}
+
+	cv::Mat source;
+	if (optind== argc - 1) {
+		source= cv::imread(argv[optind], cv::IMREAD_GRAYSCALE);
+		if (source.empty()) {
+			fprintf(stderr, "cannot read %s\n", argv[optind]);
+			return 1;
+		}
+	}
+	else source= randomTexture(4 * size);
+
+	if (source.cols< 2 * size || source.rows< 2 * size) {
+		fprintf(stderr, "image should be at least %dx%d\n", 2 * size, 2 * size);
+		return 1;
+	}
+
+	/*
+	 * Random walk of the contents, kept away from the borders of the source
+	 */
+	cv::RNG rng(1234);
+	std::vector<cv::Point2f> positions;
+	cv::Point2f origin(source.cols / 2.0f, source.rows / 2.0f);
+	cv::Point2f position(0, 0);
+	float limit= (std::min(source.cols, source.rows) - size) / 2.0f - maxStep;
+	for (int i= 0; i< numFrames; i++) {
+		positions.push_back(position);
+		cv::Point2f step(rng.uniform(-maxStep, maxStep), rng.uniform(-maxStep, maxStep));
+		if (fabsf(position.x + step.x)> limit) step.x= -step.x;
+		if (fabsf(position.y + step.y)> limit) step.y= -step.y;
+		position+= step;
+	}
+
+	// region to track, as the pipeline does for the face
+	int margin= size / 8;
+	cv::Rect region(margin, margin, size - 2 * margin, size - 2 * margin);
+
+	printf("# %-10s %8s %8s %8s %8s\n", "estimator", "err avg", "err p90", "err max", "lost");
+	std::vector<MotionEstimator*> estimators;
+
+	for (int type= 0; type< MotionEstimator::NUM_TYPES; type++) {
+		MotionEstimator* estimator= MotionEstimator::create(type);
+		estimators.push_back(estimator);
+
+		cv::Mat prev, curr;
+		// contents moving by +d appear shifted by +d, so crop at -position
+		crop(source, origin - positions[0], size, prev);
+
+		std::vector<float> errors;
+		int lost= 0;
+		for (int i= 1; i< numFrames; i++) {
+			crop(source, origin - positions[i], size, curr);
+
+			cv::Point2f motion;
+			float quality= estimator->estimate(prev, curr, i> 1, region, motion);
+			if (quality== 0) lost++;
+
+			cv::Point2f truth= positions[i] - positions[i - 1];
+			errors.push_back((float) cv::norm(motion - truth));
+
+			cv::swap(prev, curr);
+		}
+
+		std::sort(errors.begin(), errors.end());
+		float sum= 0;
+		for (size_t i= 0; i< errors.size(); i++) sum+= errors[i];
+
+		printf("# %-10s %8.3f %8.3f %8.3f %8d\n", MotionEstimator::getName(type),
+			sum / errors.size(), errors[errors.size() * 9 / 10], errors.back(), lost);
+	}
+
+	printf("#\n# %-10s %-10s %8s %8s %8s %8s %8s\n",
+		"estimator", "stage (us)", "n", "p50", "p90", "p99", "max");
+	for (size_t i= 0; i< estimators.size(); i++) {
+		for (int stage= 0; stage< MotionEstimator::NUM_STAGES; stage++) {
+			const LatencyHistogram& h= estimators[i]->getStats((MotionEstimator::EStage) stage);
+			if (h.count()== 0) continue;
+			printf("# %-10s %-10s %8lu %8lu %8lu %8lu %8lu\n",
+				MotionEstimator::getName(estimators[i]->getType()), STAGE_NAMES[stage],
+				h.count(), h.percentile(50), h.percentile(90), h.percentile(99), h.max());
+		}
+		delete estimators[i];
+	}
+
+	return 0;
+}
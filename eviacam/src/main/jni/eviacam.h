@@ -20,6 +20,8 @@
 #ifndef EVIACAM_H
 #define EVIACAM_H
 
+#ifdef __ANDROID__
+
 #include <android/log.h>
 
 #define LOG_TAG "EVIACAM-native"
@@ -29,4 +31,17 @@
 #define LOGW(...) __android_log_print(ANDROID_LOG_WARN, LOG_TAG, __VA_ARGS__)
 #define LOGE(...) __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
 
+#else
+
+// Host build (see CMakeLists.txt), log to stderr
+#include <stdio.h>
+
+#define LOGV(...) do { } while (0)
+#define LOGD(...) do { } while (0)
+#define LOGI(...) (fprintf(stderr, "I: " __VA_ARGS__), fputc('\n', stderr))
+#define LOGW(...) (fprintf(stderr, "W: " __VA_ARGS__), fputc('\n', stderr))
+#define LOGE(...) (fprintf(stderr, "E: " __VA_ARGS__), fputc('\n', stderr))
+
+#endif
+
 #endif
@@ -21,13 +21,26 @@
 #include "crvimage.h"
 #include "eviacam.h"
 #include "timeutil.h"
+#include "orientation.h"
+#include "haarcascadeio.h"
 
 #include <opencv2/imgproc/imgproc.hpp>
 #include <opencv2/video/tracking.hpp>
 #include <pthread.h>
+#include <algorithm>
 #include <unistd.h>
 #include <sys/resource.h>
+#ifdef __ANDROID__
 #include <linux/sched.h>
+#else
+// Host build
+#include <sched.h>
+#include <sys/syscall.h>
+#define gettid() ((pid_t) syscall(SYS_gettid))
+#ifndef SCHED_NORMAL
+#define SCHED_NORMAL SCHED_OTHER
+#endif
+#endif
 
 namespace eviacam {
 
@@ -73,44 +86,82 @@ void* thread_entry (void* t)
 
 FaceDetection::FaceDetection (const char* cascadePath)
 : m_finishThread(false)
-, m_processingFrame(true) // true to avoid race conditions during initialization
 , m_lastSubmit_tstamp(0)
 , m_cpuUsage(CPU_NORMAL)
+, m_bufferState(bufferState(NO_BUFFER, NO_BUFFER))
 , m_faceCascade(NULL)
 , m_storage(NULL)
 , m_faceDetected(true)
 , m_detectorInfoRetrieved(true)
+, m_synchronous(false)
+, m_lastFaceValid(false)
+, m_consecutiveMisses(0)
 {
-	//
-	// open face haar-cascade
-	// 
-	try {
-		m_faceCascade = (CvHaarClassifierCascade*) cvLoad(cascadePath, 0, 0, 0);
+	if (cascadePath && *cascadePath) loadCascade(cascadePath);
+}
+
+bool FaceDetection::loadCascade (const char* cascadePath)
+{
+	if (m_faceCascade) {
+		LOGW("FaceDetection: cascade already loaded");
+		return false;
+	}
+
+	CvHaarClassifierCascade* cascade= NULL;
+	if (isCascadeBinary(cascadePath)) cascade= readCascadeBinary(cascadePath);
+	else {
+		try {
+			cascade = (CvHaarClassifierCascade*) cvLoad(cascadePath, 0, 0, 0);
+		}
+		catch (cv::Exception& e) {
+			LOGW("%s:%d %s\n", __FILE__, __LINE__, e.what());
+		}
+	}
+
+	return startDetector(cascade);
+}
+
+bool FaceDetection::loadCascadeText (const char* text, const char* cachePath)
+{
+	if (m_faceCascade) {
+		LOGW("FaceDetection: cascade already loaded");
+		return false;
 	}
-	catch (cv::Exception& e) {
-		LOGW("%s:%d %s\n", __FILE__, __LINE__, e.what());
+
+	CvHaarClassifierCascade* cascade= readCascadeText(text);
+	if (cascade && cachePath && *cachePath) writeCascadeBinary(cascade, cachePath);
+
+	return startDetector(cascade);
+}
+
+bool FaceDetection::startDetector (CvHaarClassifierCascade* cascade)
+{
+	if (!cascade) {
 		LOGW("continuing without face detection");
+		return false;
 	}
 
+	m_faceCascade= cascade;
+
 	//
 	// create and start thread
 	//
-	if (m_faceCascade) {	
-		m_storage = cvCreateMemStorage(0);
-		
-		//
-		// TODO: check return values
-		//		
-		
-		// initialize mutex and condition objects
-		pthread_mutex_init (&m_condition_mutex, NULL);
-		pthread_cond_init (&m_condition, NULL);
-		
-		// spawn thread		
-		pthread_attr_init(&m_attr);
-		pthread_attr_setdetachstate(&m_attr, PTHREAD_CREATE_JOINABLE);
-		pthread_create(&m_thread, &m_attr, thread_entry, this);
-	}
+	m_storage = cvCreateMemStorage(0);
+
+	//
+	// TODO: check return values
+	//
+
+	// initialize mutex and condition objects
+	pthread_mutex_init (&m_condition_mutex, NULL);
+	pthread_cond_init (&m_condition, NULL);
+
+	// spawn thread
+	pthread_attr_init(&m_attr);
+	pthread_attr_setdetachstate(&m_attr, PTHREAD_CREATE_JOINABLE);
+	pthread_create(&m_thread, &m_attr, thread_entry, this);
+
+	return true;
 }
 
 FaceDetection::~FaceDetection ()
@@ -121,9 +172,8 @@ FaceDetection::~FaceDetection ()
 		// lock
 		pthread_mutex_lock(&m_condition_mutex);
 		m_finishThread= true;
-		if (!m_processingFrame)
-			// thread sleeping, needs signal
-			pthread_cond_signal(&m_condition);			
+		// awake thread if sleeping
+		pthread_cond_signal(&m_condition);
 		// unlock
 		pthread_mutex_unlock(&m_condition_mutex);
 			
@@ -152,50 +202,199 @@ void FaceDetection::threadEntry()
 	for (;;) {
 		// lock
 		pthread_mutex_lock(&m_condition_mutex);
-		
-		m_processingFrame= false;
-		
-		// need to exit?
-		if (m_finishThread) {
-			pthread_mutex_unlock(&m_condition_mutex);
-			break;
-		}
 
-		// go to sleep
-		pthread_cond_wait(&m_condition, &m_condition_mutex);
-	
+		// go to sleep until a frame is published or need to exit
+		while (!m_finishThread && publishedBuffer(m_bufferState)== NO_BUFFER)
+			pthread_cond_wait(&m_condition, &m_condition_mutex);
+
 		// need to exit?
 		if (m_finishThread) {
 			pthread_mutex_unlock(&m_condition_mutex);
 			break;
 		}
-		
-		m_processingFrame= true;
-		
+
 		pthread_mutex_unlock(&m_condition_mutex);
-		
-		// process frame
-		computeFaceTrackArea();
+
+		// take the latest published frame and process it
+		int index= acquirePublishedBuffer();
+		if (index== NO_BUFFER) continue;
+
+		computeFaceTrackArea(m_frames[index], m_frameFlip[index], m_frameRotation[index]);
+
+		releaseReadBuffer();
 	}
 	
 	LOGD("FaceDetection: threadEntry(): finish");
 }
 
-void FaceDetection::computeFaceTrackArea ()
+/*
+ * Double buffer handoff
+ *
+ * The tracking thread copies frames into the buffer that the detector is
+ * not reading and publishes it. The detector takes the published buffer
+ * (if any) when it is ready. The indexes of the published buffer and the
+ * buffer being read are packed in m_bufferState and updated with atomic
+ * compare and swap, so no lock is taken while copying.
+ */
+int FaceDetection::acquireWriteBuffer ()
+{
+	for (;;) {
+		int state= m_bufferState;
+		int published= publishedBuffer(state);
+		int reading= readingBuffer(state);
+
+		// prefer the buffer that is neither read nor published so that
+		// the published frame remains available while writing
+		int write;
+		if (reading!= NO_BUFFER) write= 1 - reading;
+		else if (published!= NO_BUFFER) write= 1 - published;
+		else write= 0;
+
+		// the buffer is going to be overwritten, unpublish it
+		int newState= bufferState(published== write? NO_BUFFER : published, reading);
+		if (__sync_bool_compare_and_swap(&m_bufferState, state, newState)) return write;
+	}
+}
+
+void FaceDetection::publishBuffer (int index)
+{
+	for (;;) {
+		int state= m_bufferState;
+		if (__sync_bool_compare_and_swap(&m_bufferState, state,
+			bufferState(index, readingBuffer(state)))) break;
+	}
+}
+
+int FaceDetection::acquirePublishedBuffer ()
+{
+	for (;;) {
+		int state= m_bufferState;
+		int published= publishedBuffer(state);
+		if (published== NO_BUFFER) return NO_BUFFER;
+		if (__sync_bool_compare_and_swap(&m_bufferState, state,
+			bufferState(NO_BUFFER, published))) return published;
+	}
+}
+
+void FaceDetection::releaseReadBuffer ()
+{
+	for (;;) {
+		int state= m_bufferState;
+		if (__sync_bool_compare_and_swap(&m_bufferState, state,
+			bufferState(publishedBuffer(state), NO_BUFFER))) break;
+	}
+}
+
+// Parameters for the full frame search
+#define FULL_SCALE_FACTOR 1.5
+#define FULL_MIN_SIZE 65
+
+// Parameters for the search around the last detected face. The window
+// is the last face expanded by SEARCH_EXPANSION times its size on each
+// side and only faces between SEARCH_MIN_RATIO and SEARCH_MAX_RATIO times
+// the last face size are searched.
+#define SEARCH_EXPANSION 0.75f
+#define SEARCH_MIN_RATIO 0.7f
+#define SEARCH_MAX_RATIO 1.4f
+#define SEARCH_SCALE_FACTOR 1.2
+
+// Misses in the search window before trying a full frame search
+#define MAX_CONSECUTIVE_MISSES 2
+
+/*
+ * Search the face in an expanded window around the last face found
+ *
+ * Returns true and updates faceRect when a face is found
+ */
+bool FaceDetection::searchNearLastFace (const CIplImage& frame, CvRect& faceRect)
 {
+	CvSize frameSize= frame.GetSize();
+	int marginX= (int) (m_lastFace.width * SEARCH_EXPANSION);
+	int marginY= (int) (m_lastFace.height * SEARCH_EXPANSION);
+
+	CvRect window;
+	window.x= std::max(m_lastFace.x - marginX, 0);
+	window.y= std::max(m_lastFace.y - marginY, 0);
+	window.width= std::min(m_lastFace.x + m_lastFace.width + marginX, frameSize.width) - window.x;
+	window.height= std::min(m_lastFace.y + m_lastFace.height + marginY, frameSize.height) - window.y;
+
+	int minSize= (int) (std::min(m_lastFace.width, m_lastFace.height) * SEARCH_MIN_RATIO);
+	int maxSize= (int) (std::max(m_lastFace.width, m_lastFace.height) * SEARCH_MAX_RATIO);
+	if (window.width< minSize || window.height< minSize) return false;
+
+	CvMat subFrame;
+	cvGetSubRect(frame.ptr(), &subFrame, window);
+
 	CvSeq *face = cvHaarDetectObjects(
-		m_frame.ptr(),
+		&subFrame,
 		m_faceCascade,
 		m_storage,
-		1.5, 2, CV_HAAR_DO_CANNY_PRUNING,
-		cvSize(65, 65)
+		SEARCH_SCALE_FACTOR, 2, CV_HAAR_DO_CANNY_PRUNING,
+		cvSize(minSize, minSize),
+		cvSize(maxSize, maxSize)
 	);
-	
-	if (face->total> 0) {
-		// face found, store results
-		m_frameSize= m_frame.GetSize();
-		CvRect* faceRect = (CvRect*) cvGetSeqElem(face, 0);		
-		m_faceRegion= *faceRect;
+
+	if (face->total== 0) return false;
+
+	faceRect= *(CvRect*) cvGetSeqElem(face, 0);
+	faceRect.x+= window.x;
+	faceRect.y+= window.y;
+
+	return true;
+}
+
+void FaceDetection::computeFaceTrackArea (const CIplImage& frame, int flip, int rotation)
+{
+	StageTimer timer(m_detectionTime);
+
+	CvSize frameSize= frame.GetSize();
+	if (m_lastFaceValid && (frameSize.width!= m_lastFaceFrameSize.width ||
+		frameSize.height!= m_lastFaceFrameSize.height)) {
+		// frame size or orientation changed, last location meaningless
+		m_lastFaceValid= false;
+	}
+
+	CvRect faceRect;
+	bool found= false;
+	bool fullSearch= true;
+
+	if (m_lastFaceValid) {
+		found= searchNearLastFace(frame, faceRect);
+		if (!found) {
+			m_consecutiveMisses++;
+			fullSearch= (m_consecutiveMisses>= MAX_CONSECUTIVE_MISSES);
+		}
+		else fullSearch= false;
+	}
+
+	if (fullSearch) {
+		CvSeq *face = cvHaarDetectObjects(
+			frame.ptr(),
+			m_faceCascade,
+			m_storage,
+			FULL_SCALE_FACTOR, 2, CV_HAAR_DO_CANNY_PRUNING,
+			cvSize(FULL_MIN_SIZE, FULL_MIN_SIZE)
+		);
+
+		if (face->total> 0) {
+			faceRect= *(CvRect*) cvGetSeqElem(face, 0);
+			found= true;
+		}
+		else m_lastFaceValid= false;
+	}
+
+	if (found) {
+		m_lastFace= faceRect;
+		m_lastFaceFrameSize= frameSize;
+		m_lastFaceValid= true;
+		m_consecutiveMisses= 0;
+	}
+
+	// store results (in the orientation of the submitted image)
+	pthread_mutex_lock(&m_condition_mutex);
+	if (found) {
+		m_frameSize= rotatedSize(frameSize, rotation);
+		m_faceRegion= uprightToSensor(faceRect, m_frameSize, flip, rotation);
 		m_faceDetected= true;
 
 		//LOGV("face detected: location (%d, %d) size (%d, %d)",
@@ -205,45 +404,53 @@ void FaceDetection::computeFaceTrackArea ()
 		m_faceDetected= false;
 	
 	m_detectorInfoRetrieved= false;
+	pthread_mutex_unlock(&m_condition_mutex);
 
 	cvClearMemStorage(m_storage);
 }
 
-void FaceDetection::submitFrame (CIplImage& image)
+void FaceDetection::submitFrame (CIplImage& image, int flip, int rotation)
 {
 	if (m_faceCascade== NULL) return;	// initialization failed, do nothing
 
-	// enough time elapsed since last submitted frame?
-	unsigned long now = CTimeUtil::GetMiliCount();
-	if (now - m_lastSubmit_tstamp< getThreadPeriod()) return;
-	
 	// detector information retrieved?
 	if (!m_detectorInfoRetrieved) return;
-	
-	// lock
-	pthread_mutex_lock(&m_condition_mutex);
-	if (m_processingFrame) {
-		// still working, do nothing
-		goto exit_submitFrame;
+
+	unsigned long now= 0;
+	if (!m_synchronous) {
+		// enough time elapsed since last submitted frame?
+		now = CTimeUtil::GetMiliCount();
+		if (now - m_lastSubmit_tstamp< getThreadPeriod()) return;
 	}
 
-	// reallocate buffer when needed
-	if (!m_frame.Initialized () || 
-		image.Width() != m_frame.Width() || image.Height() != m_frame.Height() ) {		
-		m_frame.Create (image.Width(), image.Height(), IPL_DEPTH_8U, "GRAY");
+	// copy frame (upright) into a buffer not used by the detector (no lock held)
+	int index= acquireWriteBuffer();
+	CIplImage& frame= m_frames[index];
+	CvSize size= rotatedSize(image.GetSize(), rotation);
+	if (!frame.Initialized () ||
+		size.width != frame.Width() || size.height != frame.Height() ) {
+		// no allocation when only the orientation changes
+		frame.Reshape (size.width, size.height);
 	}
-	
-	// copy frame to internal buffer
-	cvCopy(image.ptr(), m_frame.ptr());
-	
+	rotateImage(image.ptr(), frame.ptr(), flip, rotation);
+	m_frameFlip[index]= flip;
+	m_frameRotation[index]= rotation;
+
+	if (m_synchronous) {
+		// run the detector on the calling thread
+		computeFaceTrackArea(frame, flip, rotation);
+		return;
+	}
+
 	// update time stamp
 	m_lastSubmit_tstamp= now;
 
+	publishBuffer(index);
+
 	// signal (awake worker thread)
+	pthread_mutex_lock(&m_condition_mutex);
 	pthread_cond_signal(&m_condition);
-	
-exit_submitFrame:
-	pthread_mutex_unlock(&m_condition_mutex);		
+	pthread_mutex_unlock(&m_condition_mutex);
 }
 
 bool FaceDetection::retrieveDetectionInfo (bool &faceDetected, CvSize& frameSize, CvRect& faceRegion)
@@ -253,16 +460,8 @@ bool FaceDetection::retrieveDetectionInfo (bool &faceDetected, CvSize& frameSize
 	// face localization retrieved?
 	if (m_detectorInfoRetrieved) return false;	// no new information available
 	
-	bool retval= false;
-	
-	// lock
+	// lock (only held by the detector while storing the results)
 	pthread_mutex_lock(&m_condition_mutex);
-	if (m_processingFrame) {
-		// still working, do nothing
-		goto exit_retrieveFaceLocation;
-	}
-	
-	retval= true;
 	
 	faceDetected= m_faceDetected;
 	if (faceDetected) {
@@ -272,10 +471,9 @@ bool FaceDetection::retrieveDetectionInfo (bool &faceDetected, CvSize& frameSize
 	
 	m_detectorInfoRetrieved= true;
 
-exit_retrieveFaceLocation:
 	pthread_mutex_unlock(&m_condition_mutex);
 	
-	return retval;
+	return true;
 }
 
 FaceDetection::ECpuUsage FaceDetection::getCpuUsage () const
@@ -21,20 +21,41 @@
 #define FACEDETECTION_H
 
 #include "crvimage.h"
+#include "latencystats.h"
 
 namespace eviacam {
 
 class FaceDetection
 {
 public:
-	FaceDetection (const char* cascadePath);
+	// When cascadePath is NULL (or empty) the detector does nothing until
+	// loadCascade is called
+	FaceDetection (const char* cascadePath= NULL);
 	virtual ~FaceDetection ();
 
-	// Submit a new frame for processing. The frame might be ignored if the 
-	// detector is still processing another frame, not enough time has elapsed
-	// since last processed frame or last face location has not been retrieved.
-	// This call does not block the calling thread.
-	void submitFrame (CIplImage& image);
+	// Load the haar-cascade and start the detector thread. Can be called once,
+	// and before any other method, but not necessarily from the thread that
+	// uses the detector (the cascade can be loaded while the camera is opened).
+	// Return false on error, the detector does nothing in that case.
+	//
+	// The file can hold the cascade either as XML or in the binary form of
+	// haarcascadeio.h, which is much faster to load.
+	bool loadCascade (const char* cascadePath);
+
+	// Same as loadCascade but the XML is read from memory (NUL terminated).
+	// When cachePath is given the binary form of the cascade is saved there
+	// so that loadCascade(cachePath) can be used the next times.
+	bool loadCascadeText (const char* text, const char* cachePath= NULL);
+
+	// Submit a new frame for processing. The frame might be ignored if not
+	// enough time has elapsed since last processed frame or last face location
+	// has not been retrieved. The frame is copied into a buffer not used by the
+	// detector thread, so this call does not block the calling thread.
+	//
+	// flip and rotation (see orientation.h) are applied to the copy so that
+	// the face appears upright for the detector. Results are given in the
+	// coordinates of the submitted image.
+	void submitFrame (CIplImage& image, int flip= 0, int rotation= 0);
 
 	// Retrieve information about the detection face performed
 	//
@@ -50,6 +71,16 @@ public:
 	enum ECpuUsage {CPU_LOWEST= 0, CPU_LOW, CPU_NORMAL, CPU_HIGH, CPU_HIGHEST};
 	void setCpuUsage (ECpuUsage value);
 	ECpuUsage getCpuUsage () const;
+
+	// When enabled, submitFrame runs the detector on the calling thread for
+	// every frame whose result has been retrieved, regardless of the CPU usage
+	// setting. Used for deterministic offline replays (see replay.cpp).
+	void setSynchronous (bool value) { m_synchronous= value; }
+	bool getSynchronous () const { return m_synchronous; }
+
+	// Latency of the detection (in microseconds)
+	const LatencyHistogram& getDetectionStats () const { return m_detectionTime; }
+	void resetStats () { m_detectionTime.reset(); }
 	
 private:
 	// Threading and synchronization stuff
@@ -59,14 +90,21 @@ private:
 	pthread_cond_t m_condition;
 	
 	volatile bool m_finishThread; 	// used to finish thread gracefully
-	volatile bool m_processingFrame; // true while thread is processing a frame
 
 	// Timing stuff
 	unsigned long m_lastSubmit_tstamp;
 	ECpuUsage m_cpuUsage;
 	
-	// Image buffer
-	CIplImage m_frame;
+	// Double buffer to hand frames to the detector thread. m_bufferState packs
+	// the index of the published buffer and the buffer being read
+	enum { NO_BUFFER= 2 };
+	CIplImage m_frames[2];
+	int m_frameFlip[2], m_frameRotation[2];
+	volatile int m_bufferState;
+
+	static int bufferState (int published, int reading) { return published | (reading << 2); }
+	static int publishedBuffer (int state) { return state & 3; }
+	static int readingBuffer (int state) { return state >> 2; }
 	
 	// Cascade classifier stuff
 	CvHaarClassifierCascade* m_faceCascade;
@@ -78,10 +116,29 @@ private:
 	bool m_faceDetected;
 	bool m_detectorInfoRetrieved;
 
+	// Run detection on the submitting thread
+	bool m_synchronous;
+
+	// Last face found (detector thread only). Used to search the face first
+	// around its last location before scanning the whole frame
+	bool m_lastFaceValid;
+	CvRect m_lastFace;
+	CvSize m_lastFaceFrameSize;
+	int m_consecutiveMisses;
+
+	// Detection latency histogram
+	LatencyHistogram m_detectionTime;
+
 	//
 	// Private methods
 	//
-	void computeFaceTrackArea ();
+	bool startDetector (CvHaarClassifierCascade* cascade);
+	int acquireWriteBuffer ();
+	void publishBuffer (int index);
+	int acquirePublishedBuffer ();
+	void releaseReadBuffer ();
+	bool searchNearLastFace (const CIplImage& frame, CvRect& faceRect);
+	void computeFaceTrackArea (const CIplImage& frame, int flip, int rotation);
 	unsigned long getThreadPeriod () const;
 	void threadEntry();
 	
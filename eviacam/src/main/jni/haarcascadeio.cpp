@@ -0,0 +1,254 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include "haarcascadeio.h"
+#include "eviacam.h"
+
+#include <opencv2/core/core.hpp>
+#include <stdio.h>
+#include <string.h>
+#include <string>
+
+namespace eviacam {
+
+/*
+ * Binary form
+ *
+ * header: magic, version, sizeof(CvHaarFeature) (layout check), window
+ *   width and height, number of stages
+ * for each stage: number of classifiers, threshold, parent, next, child
+ *   for each classifier: number of features, then the features, thresholds,
+ *   left and right nodes and alphas as laid out in memory (see allocClassifier)
+ */
+static const char BINARY_MAGIC[4]= { 'E', 'V', 'H', 'C' };
+#define BINARY_VERSION 1
+
+// Limits to reject corrupt files
+#define MAX_STAGES 1000
+#define MAX_CLASSIFIERS 10000
+#define MAX_FEATURES 256
+
+template <class T>
+static bool writeValue (FILE* f, const T& value)
+{
+	return fwrite(&value, sizeof(T), 1, f)== 1;
+}
+
+template <class T>
+static bool readValue (FILE* f, T& value)
+{
+	return fread(&value, sizeof(T), 1, f)== 1;
+}
+
+template <class T>
+static bool writeArray (FILE* f, const T* values, int count)
+{
+	return fwrite(values, sizeof(T), count, f)== (size_t) count;
+}
+
+CvHaarClassifierCascade* readCascadeText (const char* text)
+{
+	CvFileStorage* fs= NULL;
+	void* obj= NULL;
+
+	try {
+		fs= cvOpenFileStorage(text, NULL, CV_STORAGE_READ | CV_STORAGE_MEMORY);
+		if (fs) {
+			// the cascade is the first node of the file (as cvLoad does)
+			CvFileNode* root= cvGetRootFileNode(fs, 0);
+			CvFileNode* node= NULL;
+			if (root && CV_NODE_IS_MAP(root->tag)) {
+				CvSeq* seq= root->data.seq;
+				CvSeqReader reader;
+				cvStartReadSeq(seq, &reader, 0);
+				for (int i= 0; i< seq->total && !node; i++) {
+					if (CV_IS_SET_ELEM(reader.ptr)) node= (CvFileNode*) reader.ptr;
+					CV_NEXT_SEQ_ELEM(seq->elem_size, reader);
+				}
+			}
+			if (node) obj= cvRead(fs, node);
+		}
+	}
+	catch (cv::Exception& e) {
+		LOGW("%s:%d %s", __FILE__, __LINE__, e.what());
+	}
+
+	if (fs) cvReleaseFileStorage(&fs);
+
+	if (obj && !CV_IS_HAAR_CLASSIFIER(obj)) {
+		LOGW("readCascadeText: not a haar cascade");
+		cvRelease(&obj);
+	}
+
+	return (CvHaarClassifierCascade*) obj;
+}
+
+/*
+ * The cascade is allocated as cvReleaseHaarClassifierCascade expects: one
+ * block for the cascade and its stages, one block per stage for its
+ * classifiers and one block per classifier for its features (and the
+ * thresholds, left and right nodes and alphas of the features)
+ */
+static size_t classifierBlockSize (int count)
+{
+	return count * (sizeof(CvHaarFeature) + sizeof(float) + 2 * sizeof(int)) +
+		(count + 1) * sizeof(float);
+}
+
+static bool allocClassifier (CvHaarClassifier& classifier, int count)
+{
+	classifier.haar_feature= (CvHaarFeature*) cvAlloc(classifierBlockSize(count));
+	if (!classifier.haar_feature) return false;
+
+	classifier.threshold= (float*) (classifier.haar_feature + count);
+	classifier.left= (int*) (classifier.threshold + count);
+	classifier.right= classifier.left + count;
+	classifier.alpha= (float*) (classifier.right + count);
+	classifier.count= count;
+
+	return true;
+}
+
+bool isCascadeBinary (const char* path)
+{
+	FILE* f= fopen(path, "rb");
+	if (!f) return false;
+
+	char magic[sizeof(BINARY_MAGIC)];
+	bool result= fread(magic, sizeof(magic), 1, f)== 1 &&
+		memcmp(magic, BINARY_MAGIC, sizeof(magic))== 0;
+	fclose(f);
+
+	return result;
+}
+
+CvHaarClassifierCascade* readCascadeBinary (const char* path)
+{
+	FILE* f= fopen(path, "rb");
+	if (!f) return NULL;
+
+	CvHaarClassifierCascade* cascade= NULL;
+	bool ok= false;
+
+	char magic[sizeof(BINARY_MAGIC)];
+	int version, featureSize, width, height, numStages;
+	if (fread(magic, sizeof(magic), 1, f)== 1 &&
+		memcmp(magic, BINARY_MAGIC, sizeof(magic))== 0 &&
+		readValue(f, version) && version== BINARY_VERSION &&
+		readValue(f, featureSize) && featureSize== (int) sizeof(CvHaarFeature) &&
+		readValue(f, width) && readValue(f, height) &&
+		readValue(f, numStages) && numStages> 0 && numStages<= MAX_STAGES) {
+
+		size_t blockSize= sizeof(CvHaarClassifierCascade) +
+			numStages * sizeof(CvHaarStageClassifier);
+		cascade= (CvHaarClassifierCascade*) cvAlloc(blockSize);
+		memset(cascade, 0, blockSize);
+		cascade->flags= CV_HAAR_MAGIC_VAL;
+		cascade->orig_window_size= cvSize(width, height);
+		cascade->stage_classifier= (CvHaarStageClassifier*) (cascade + 1);
+
+		/*
+		 * The counts are set once the storage they refer to has been
+		 * allocated, so that the cascade can be released at any point
+		 */
+		ok= true;
+		for (int i= 0; i< numStages && ok; i++) {
+			CvHaarStageClassifier& stage= cascade->stage_classifier[i];
+			cascade->count= i + 1;
+
+			int numClassifiers;
+			ok= readValue(f, numClassifiers) &&
+				numClassifiers> 0 && numClassifiers<= MAX_CLASSIFIERS &&
+				readValue(f, stage.threshold) && readValue(f, stage.parent) &&
+				readValue(f, stage.next) && readValue(f, stage.child);
+			if (!ok) break;
+
+			stage.classifier= (CvHaarClassifier*) cvAlloc(numClassifiers * sizeof(CvHaarClassifier));
+			memset(stage.classifier, 0, numClassifiers * sizeof(CvHaarClassifier));
+			stage.count= numClassifiers;
+
+			for (int j= 0; j< numClassifiers && ok; j++) {
+				int numFeatures;
+				ok= readValue(f, numFeatures) &&
+					numFeatures> 0 && numFeatures<= MAX_FEATURES &&
+					allocClassifier(stage.classifier[j], numFeatures) &&
+					fread(stage.classifier[j].haar_feature, classifierBlockSize(numFeatures), 1, f)== 1;
+			}
+		}
+	}
+
+	fclose(f);
+
+	if (!ok) {
+		LOGW("readCascadeBinary: invalid file %s", path);
+		if (cascade) cvReleaseHaarClassifierCascade(&cascade);
+		return NULL;
+	}
+
+	return cascade;
+}
+
+bool writeCascadeBinary (const CvHaarClassifierCascade* cascade, const char* path)
+{
+	// written with another name and renamed at the end, never leave a partial file
+	std::string tmpPath= std::string(path) + ".tmp";
+	FILE* f= fopen(tmpPath.c_str(), "wb");
+	if (!f) {
+		LOGW("writeCascadeBinary: cannot create %s", tmpPath.c_str());
+		return false;
+	}
+
+	int version= BINARY_VERSION;
+	int featureSize= sizeof(CvHaarFeature);
+	bool ok= writeArray(f, BINARY_MAGIC, sizeof(BINARY_MAGIC)) &&
+		writeValue(f, version) && writeValue(f, featureSize) &&
+		writeValue(f, cascade->orig_window_size.width) &&
+		writeValue(f, cascade->orig_window_size.height) &&
+		writeValue(f, cascade->count);
+
+	for (int i= 0; i< cascade->count && ok; i++) {
+		const CvHaarStageClassifier& stage= cascade->stage_classifier[i];
+		ok= writeValue(f, stage.count) && writeValue(f, stage.threshold) &&
+			writeValue(f, stage.parent) && writeValue(f, stage.next) &&
+			writeValue(f, stage.child);
+
+		for (int j= 0; j< stage.count && ok; j++) {
+			const CvHaarClassifier& classifier= stage.classifier[j];
+			int count= classifier.count;
+			ok= writeValue(f, count) &&
+				writeArray(f, classifier.haar_feature, count) &&
+				writeArray(f, classifier.threshold, count) &&
+				writeArray(f, classifier.left, count) &&
+				writeArray(f, classifier.right, count) &&
+				writeArray(f, classifier.alpha, count + 1);
+		}
+	}
+
+	if (fclose(f)!= 0) ok= false;
+
+	if (ok) ok= (rename(tmpPath.c_str(), path)== 0);
+	if (!ok) {
+		LOGW("writeCascadeBinary: cannot write %s", path);
+		remove(tmpPath.c_str());
+	}
+
+	return ok;
+}
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#ifndef HAARCASCADEIO_H
+#define HAARCASCADEIO_H
+
+#include <opencv2/core/core_c.h>
+#include <opencv2/objdetect/objdetect_c.h>
+
+namespace eviacam {
+
+/**
+ * Loading and caching of haar cascades
+ *
+ * Parsing the XML form of a cascade takes a good part of the startup, so
+ * once parsed it can be saved in a compact binary form which is read back
+ * with no parsing. The binary form depends on the layout of the numbers
+ * of the machine, it is meant as a local cache, not to be distributed.
+ *
+ * Cascades returned by these functions are freed with
+ * cvReleaseHaarClassifierCascade.
+ */
+
+// Parse the XML (or YAML) form of a cascade held in memory (NUL terminated).
+// Return NULL on error
+CvHaarClassifierCascade* readCascadeText (const char* text);
+
+// Return true if the file exists and holds a cascade in binary form
+bool isCascadeBinary (const char* path);
+
+// Read a cascade in binary form. Return NULL on error
+CvHaarClassifierCascade* readCascadeBinary (const char* path);
+
+// Save a cascade in binary form. Return false on error
+bool writeCascadeBinary (const CvHaarClassifierCascade* cascade, const char* path);
+
+}
+
+#endif
@@ -0,0 +1,111 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include "latencystats.h"
+
+namespace eviacam {
+
+LatencyHistogram::LatencyHistogram ()
+{
+	reset();
+}
+
+void LatencyHistogram::reset ()
+{
+	for (int i= 0; i< NUM_BUCKETS; i++) m_buckets[i]= 0;
+	m_count= 0;
+	m_max= 0;
+}
+
+/*
+ * Values below 4 have their own bucket. Above, each power of two
+ * is split into 4 buckets using the two bits after the most
+ * significant one.
+ */
+int LatencyHistogram::bucketIndex (unsigned long us)
+{
+	unsigned int v= (us> 0x7FFFFFFFUL? 0x7FFFFFFFU : (unsigned int) us);
+	if (v< 4) return v;
+
+	int msb= 31 - __builtin_clz(v);
+	int sub= (v >> (msb - 2)) & 3;
+	int idx= (msb - 1) * 4 + sub;
+
+	return (idx< NUM_BUCKETS? idx : NUM_BUCKETS - 1);
+}
+
+unsigned long LatencyHistogram::bucketUpperBound (int idx)
+{
+	if (idx< 4) return idx + 1;
+
+	int msb= idx / 4 + 1;
+	int sub= idx % 4;
+
+	return (unsigned long) (5 + sub) << (msb - 2);
+}
+
+void LatencyHistogram::add (unsigned long us)
+{
+	__sync_fetch_and_add(&m_buckets[bucketIndex(us)], 1);
+	__sync_fetch_and_add(&m_count, 1);
+
+	// update max without locking
+	unsigned int v= (us> 0xFFFFFFFFUL? 0xFFFFFFFFU : (unsigned int) us);
+	unsigned int prev= m_max;
+	while (v> prev) {
+		unsigned int old= __sync_val_compare_and_swap(&m_max, prev, v);
+		if (old== prev) break;
+		prev= old;
+	}
+}
+
+unsigned long LatencyHistogram::count () const
+{
+	return m_count;
+}
+
+unsigned long LatencyHistogram::max () const
+{
+	return m_max;
+}
+
+unsigned long LatencyHistogram::percentile (int p) const
+{
+	unsigned long total= 0;
+	for (int i= 0; i< NUM_BUCKETS; i++) total+= m_buckets[i];
+	if (total== 0) return 0;
+
+	// rank of the sample (rounded up)
+	unsigned long rank= (total * p + 99) / 100;
+	if (rank== 0) rank= 1;
+
+	unsigned long acc= 0;
+	for (int i= 0; i< NUM_BUCKETS; i++) {
+		acc+= m_buckets[i];
+		if (acc>= rank) {
+			unsigned long bound= bucketUpperBound(i);
+			// the upper bound of the bucket is never above the max seen
+			return (bound> m_max && m_max> 0? m_max : bound);
+		}
+	}
+
+	return m_max;
+}
+
+}
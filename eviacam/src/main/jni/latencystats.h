@@ -0,0 +1,94 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#ifndef LATENCYSTATS_H
+#define LATENCYSTATS_H
+
+#include "timeutil.h"
+
+namespace eviacam {
+
+/**
+ * Histogram of latencies (in microseconds)
+ *
+ * Samples are added without locks (atomic increments), so it can be updated from
+ * the processing threads while read from another thread. Readings are not an
+ * atomic snapshot, but each counter is consistent.
+ *
+ * Buckets are logarithmic with 4 linear sub-buckets for each power of two,
+ * which gives a relative error below 25%.
+ */
+class LatencyHistogram
+{
+public:
+	LatencyHistogram ();
+
+	// add a sample (in microseconds)
+	void add (unsigned long us);
+
+	// clear all samples
+	void reset ();
+
+	// number of samples
+	unsigned long count () const;
+
+	// max value (in microseconds)
+	unsigned long max () const;
+
+	// approximate value for percentile p (0..100) in microseconds
+	unsigned long percentile (int p) const;
+
+private:
+	enum { NUM_BUCKETS= 120 };
+
+	volatile unsigned int m_buckets[NUM_BUCKETS];
+	volatile unsigned int m_count;
+	volatile unsigned int m_max;
+
+	static int bucketIndex (unsigned long us);
+	static unsigned long bucketUpperBound (int idx);
+};
+
+/**
+ * Measures the time elapsed between its construction and its destruction
+ * using the monotonic clock and adds it to a histogram
+ */
+class StageTimer
+{
+public:
+	StageTimer (LatencyHistogram& histogram)
+	: m_histogram(histogram)
+	, m_start(CTimeUtil::GetNanoCount()) {}
+
+	~StageTimer () {
+		m_histogram.add((unsigned long) ((CTimeUtil::GetNanoCount() - m_start) / 1000ULL));
+	}
+
+private:
+	LatencyHistogram& m_histogram;
+	unsigned long long m_start;
+
+	// non-copyable
+	StageTimer (const StageTimer&);
+	StageTimer& operator= (const StageTimer&);
+};
+
+}
+
+#endif
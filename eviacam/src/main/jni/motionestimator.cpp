@@ -0,0 +1,53 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include "motionestimator.h"
+#include "sparselkestimator.h"
+#include "phasecorrelationestimator.h"
+#include "templatematchingestimator.h"
+
+#include <stddef.h>
+
+namespace eviacam {
+
+MotionEstimator* MotionEstimator::create (int type)
+{
+	switch (type) {
+	case SPARSE_LK: return new SparseLKEstimator();
+	case PHASE_CORRELATION: return new PhaseCorrelationEstimator();
+	case TEMPLATE_MATCHING: return new TemplateMatchingEstimator();
+	}
+
+	return NULL;
+}
+
+const char* MotionEstimator::getName (int type)
+{
+	static const char* NAMES[NUM_TYPES]= { "lk", "phase", "template" };
+
+	if (type< 0 || type>= NUM_TYPES) return NULL;
+	return NAMES[type];
+}
+
+void MotionEstimator::resetStats ()
+{
+	for (int i= 0; i< NUM_STAGES; i++) m_stats[i].reset();
+}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#ifndef MOTIONESTIMATOR_H
+#define MOTIONESTIMATOR_H
+
+#include <opencv2/core/core.hpp>
+
+#include "latencystats.h"
+
+namespace eviacam {
+
+/**
+ * Estimates the motion of a region between two consecutive gray images
+ *
+ * Images are the working images of the vision pipeline (i.e. the area
+ * around the face, possibly scaled), so results are given in working
+ * image pixels. Estimators do not depend on the pipeline and can be
+ * benchmarked in isolation (see estimatorbench.cpp).
+ */
+class MotionEstimator
+{
+public:
+	/*
+	 * Available backends
+	 *
+	 * Keep in sync with VisionPipeline.java
+	 */
+	enum EType { SPARSE_LK= 0, PHASE_CORRELATION, TEMPLATE_MATCHING, NUM_TYPES };
+
+	/*
+	 * Stages for which latency statistics are collected. Not all the
+	 * backends use all the stages.
+	 */
+	enum EStage { STAGE_PREPARE= 0, STAGE_FEATURES, STAGE_SUBPIX, STAGE_MATCH, NUM_STAGES };
+
+	// Create a backend, NULL if type is not valid
+	static MotionEstimator* create (int type);
+
+	// Name of a backend, NULL if type is not valid
+	static const char* getName (int type);
+
+	virtual ~MotionEstimator () {}
+
+	virtual EType getType () const = 0;
+
+	/**
+	* Select again what is tracked inside the region in the next call to
+	* estimate (e.g. after the face has been detected)
+	*/
+	virtual void refresh () {}
+
+	/**
+	* Estimate the motion of a region
+	*
+	* @param prev previous image
+	* @param curr current image, same size than prev
+	* @param continuous true when prev is the image passed as curr in the
+	*   previous call, so that data derived from it can be reused
+	* @param region region to track (coordinates of prev)
+	* @param motion updated with the displacement of the region from prev to curr
+	* @return quality of the estimation, from 0 (no motion could be
+	*   estimated, motion is set to 0) to 1
+	*/
+	virtual float estimate (const cv::Mat& prev, const cv::Mat& curr, bool continuous,
+		const cv::Rect& region, cv::Point2f& motion) = 0;
+
+	// Latency of each stage (in microseconds)
+	const LatencyHistogram& getStats (EStage stage) const { return m_stats[stage]; }
+	void resetStats ();
+
+protected:
+	LatencyHistogram m_stats[NUM_STAGES];
+};
+
+}
+
+#endif
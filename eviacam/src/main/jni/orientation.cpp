@@ -0,0 +1,155 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include "orientation.h"
+
+#include <algorithm>
+
+namespace eviacam {
+
+CvSize rotatedSize (const CvSize& size, int rotation)
+{
+	if (rotation== 90 || rotation== 270) return cvSize(size.height, size.width);
+	return size;
+}
+
+/*
+ * cvFlip code for a flip mask (bit 0: vertical, bit 1: horizontal)
+ */
+static
+int flipCode (int flips)
+{
+	switch (flips) {
+	case 1: return 0;
+	case 2: return 1;
+	default: return -1;
+	}
+}
+
+void rotateImage (const IplImage* src, IplImage* dst, int flip, int rotation)
+{
+	assert (src!= dst);
+
+	// flips (mask) to apply after the transposition (if any)
+	int flips;
+
+	if (rotation== 90 || rotation== 270) {
+		/*
+		 * 90:  horizontal flip after transposing
+		 * 270: vertical flip after transposing
+		 * A flip before transposing is the opposite flip after it
+		 */
+		int swapped= ((flip & 1) << 1) | ((flip & 2) >> 1);
+		flips= swapped ^ (rotation== 90? 2 : 1);
+
+		cvTranspose(src, dst);
+		if (flips) cvFlip(dst, NULL, flipCode(flips));
+	}
+	else {
+		// 180: both flips
+		flips= flip ^ (rotation== 180? 3 : 0);
+
+		if (flips) cvFlip(src, dst, flipCode(flips));
+		else cvCopy(src, dst);
+	}
+}
+
+static
+CvPoint2D32f flipPoint (const CvPoint2D32f& p, const CvSize& size, int flip)
+{
+	CvPoint2D32f result= p;
+	if (flip & 1) result.y= size.height - p.y;
+	if (flip & 2) result.x= size.width - p.x;
+	return result;
+}
+
+CvPoint2D32f sensorToUpright (const CvPoint2D32f& p, const CvSize& sensorSize,
+	int flip, int rotation)
+{
+	CvPoint2D32f f= flipPoint(p, sensorSize, flip);
+
+	switch (rotation) {
+	case 90:
+		return cvPoint2D32f(sensorSize.height - f.y, f.x);
+	case 180:
+		return cvPoint2D32f(sensorSize.width - f.x, sensorSize.height - f.y);
+	case 270:
+		return cvPoint2D32f(f.y, sensorSize.width - f.x);
+	default:
+		return f;
+	}
+}
+
+CvPoint2D32f uprightToSensor (const CvPoint2D32f& p, const CvSize& sensorSize,
+	int flip, int rotation)
+{
+	CvPoint2D32f f;
+
+	switch (rotation) {
+	case 90:
+		f= cvPoint2D32f(p.y, sensorSize.height - p.x);
+		break;
+	case 180:
+		f= cvPoint2D32f(sensorSize.width - p.x, sensorSize.height - p.y);
+		break;
+	case 270:
+		f= cvPoint2D32f(sensorSize.width - p.y, p.x);
+		break;
+	default:
+		f= p;
+	}
+
+	return flipPoint(f, sensorSize, flip);
+}
+
+CvRect uprightToSensor (const CvRect& r, const CvSize& sensorSize, int flip, int rotation)
+{
+	CvPoint2D32f p1= uprightToSensor(cvPoint2D32f(r.x, r.y), sensorSize, flip, rotation);
+	CvPoint2D32f p2= uprightToSensor(cvPoint2D32f(r.x + r.width, r.y + r.height),
+		sensorSize, flip, rotation);
+
+	CvRect result;
+	result.x= cvRound(std::min(p1.x, p2.x));
+	result.y= cvRound(std::min(p1.y, p2.y));
+	result.width= cvRound(std::max(p1.x, p2.x)) - result.x;
+	result.height= cvRound(std::max(p1.y, p2.y)) - result.y;
+
+	return result;
+}
+
+void sensorToUpright (float& x, float& y, int flip, int rotation)
+{
+	if (flip & 1) y= -y;
+	if (flip & 2) x= -x;
+
+	float tmp;
+	switch (rotation) {
+	case 90:
+		tmp= x; x= -y; y= tmp;
+		break;
+	case 180:
+		x= -x; y= -y;
+		break;
+	case 270:
+		tmp= x; x= y; y= -tmp;
+		break;
+	}
+}
+
+}
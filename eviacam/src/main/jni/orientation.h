@@ -0,0 +1,61 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#ifndef ORIENTATION_H
+#define ORIENTATION_H
+
+#include <opencv/cv.h>
+
+namespace eviacam {
+
+/*
+ * Conversions between the sensor (capture) orientation and the upright
+ * orientation, i.e. the orientation in which the subject appears right.
+ *
+ * flip is applied first, in sensor orientation:
+ *   0: no flip
+ *   1: vertical flip (around X-axis)
+ *   2: horizontal flip (around Y-axis)
+ * then the image is rotated clockwise by rotation degrees (0, 90, 180, 270).
+ */
+
+// Size of the image once rotated
+CvSize rotatedSize (const CvSize& size, int rotation);
+
+// Flip and rotate src into dst (in at most two passes). dst must have
+// the rotated size of src and cannot be the same image.
+void rotateImage (const IplImage* src, IplImage* dst, int flip, int rotation);
+
+// Convert a point given in sensor coordinates to upright coordinates
+CvPoint2D32f sensorToUpright (const CvPoint2D32f& p, const CvSize& sensorSize,
+	int flip, int rotation);
+
+// Convert a point given in upright coordinates to sensor coordinates
+CvPoint2D32f uprightToSensor (const CvPoint2D32f& p, const CvSize& sensorSize,
+	int flip, int rotation);
+
+// Convert a rectangle given in upright coordinates to sensor coordinates
+CvRect uprightToSensor (const CvRect& r, const CvSize& sensorSize, int flip, int rotation);
+
+// Convert a motion vector given in sensor orientation to upright orientation
+void sensorToUpright (float& x, float& y, int flip, int rotation);
+
+}
+
+#endif
@@ -0,0 +1,91 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include "phasecorrelationestimator.h"
+
+#include <opencv2/imgproc/imgproc.hpp>
+
+namespace eviacam {
+
+// Size of the correlated images (power of two for a fast DFT)
+#define CORRELATION_SIZE 64
+
+// Regions smaller than this (in pixels) are not correlated
+#define MIN_REGION_SIZE 8
+
+// Peaks weaker than this are considered noise
+#define MIN_RESPONSE 0.03
+
+// Response regarded as a reliable estimation (quality 1)
+#define GOOD_RESPONSE 0.2
+
+PhaseCorrelationEstimator::PhaseCorrelationEstimator ()
+{
+	cv::Size size(CORRELATION_SIZE, CORRELATION_SIZE);
+	m_prevScaled.create(size, CV_8UC1);
+	m_currScaled.create(size, CV_8UC1);
+	m_prevFloat.create(size, CV_32FC1);
+	m_currFloat.create(size, CV_32FC1);
+
+	// reduces the edge effects of the DFT
+	cv::createHanningWindow(m_window, size, CV_32FC1);
+}
+
+void PhaseCorrelationEstimator::scaleRegion (const cv::Mat& src, cv::Mat& scaled, cv::Mat& dst)
+{
+	cv::resize(src, scaled, scaled.size(), 0, 0, cv::INTER_AREA);
+	scaled.convertTo(dst, CV_32F);
+}
+
+float PhaseCorrelationEstimator::estimate (const cv::Mat& prev, const cv::Mat& curr, bool,
+	const cv::Rect& region, cv::Point2f& motion)
+{
+	motion= cv::Point2f(0, 0);
+
+	cv::Rect r= region & cv::Rect(0, 0, curr.cols, curr.rows);
+	if (r.width< MIN_REGION_SIZE || r.height< MIN_REGION_SIZE) return 0;
+
+	/*
+	 * Both regions are taken at the same location, so the shift found is
+	 * the displacement of the contents of the region
+	 */
+	{
+	StageTimer timer(m_stats[STAGE_PREPARE]);
+	scaleRegion(prev(r), m_prevScaled, m_prevFloat);
+	scaleRegion(curr(r), m_currScaled, m_currFloat);
+	}
+
+	double response= 0;
+	cv::Point2d shift;
+	{
+	StageTimer timer(m_stats[STAGE_MATCH]);
+	// shift of the second image with respect to the first one
+	shift= cv::phaseCorrelate(m_prevFloat, m_currFloat, m_window, &response);
+	}
+
+	if (response< MIN_RESPONSE) return 0;
+
+	// back to image pixels
+	motion.x= (float) (shift.x * r.width / CORRELATION_SIZE);
+	motion.y= (float) (shift.y * r.height / CORRELATION_SIZE);
+
+	return (response>= GOOD_RESPONSE? 1.0f : (float) (response / GOOD_RESPONSE));
+}
+
+}
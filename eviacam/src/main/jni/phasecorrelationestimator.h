@@ -0,0 +1,55 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#ifndef PHASECORRELATIONESTIMATOR_H
+#define PHASECORRELATIONESTIMATOR_H
+
+#include "motionestimator.h"
+
+namespace eviacam {
+
+/**
+ * Global motion of the region using FFT based phase correlation
+ *
+ * The region of both images is scaled to a small fixed size before
+ * correlating them, so the cost is constant (it depends neither on the
+ * region size nor on its contents) and there are no feature extraction
+ * spikes.
+ */
+class PhaseCorrelationEstimator : public MotionEstimator
+{
+public:
+	PhaseCorrelationEstimator ();
+
+	virtual EType getType () const { return PHASE_CORRELATION; }
+	virtual float estimate (const cv::Mat& prev, const cv::Mat& curr, bool continuous,
+		const cv::Rect& region, cv::Point2f& motion);
+
+private:
+	// Scaled regions (8 bit and float) and window. Allocated once.
+	cv::Mat m_prevScaled, m_currScaled;
+	cv::Mat m_prevFloat, m_currFloat;
+	cv::Mat m_window;
+
+	void scaleRegion (const cv::Mat& src, cv::Mat& scaled, cv::Mat& dst);
+};
+
+}
+
+#endif
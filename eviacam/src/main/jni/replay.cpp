@@ -0,0 +1,318 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Offline replay of recorded frame sequences through the vision pipeline.
+ * Host only, see CMakeLists.txt
+ *
+ * Input is either a directory of images (processed in file name order),
+ * a video file or a session recorded on the device (.evrec file, see
+ * FrameRecorder.java). For each frame prints one line:
+ *
+ *   <frame> <x velocity> <y velocity> <face detected> <processing time (us)>
+ *
+ * For recorded sessions the rotation and flip stored with each frame are used
+ * and the values computed on the device are appended to the line:
+ *
+ *   ... <recorded x velocity> <recorded y velocity> <recorded face detected>
+ *
+ * and "# face lost"/"# face found" lines when the detection state changes.
+ * The per-stage latency statistics are printed at the end.
+ *
+ * By default face detection runs synchronously so that results only depend
+ * on the input frames. Use -a to run it on its own thread as on the device.
+ */
+
+#include "visionpipeline.h"
+#include "crvimage.h"
+#include "timeutil.h"
+
+#include <opencv2/core/core.hpp>
+#include <opencv2/imgproc/imgproc.hpp>
+#include <opencv2/highgui/highgui.hpp>
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <dirent.h>
+#include <sys/stat.h>
+#include <unistd.h>
+
+#include <algorithm>
+#include <string>
+#include <vector>
+
+#ifndef DEFAULT_CASCADE
+#define DEFAULT_CASCADE "haarcascade.xml"
+#endif
+
+using namespace eviacam;
+
+static const char* STAGE_NAMES[VisionPipeline::NUM_STAGES]= {
+	"total", "color", "rotation", "features", "subpix", "motion",
+	"face submit", "face detection", "prepare" };
+
+// Metadata stored along with each recorded frame
+struct FrameInfo
+{
+	bool recorded;
+	int rotation, flip;
+	float xVel, yVel;
+	int faceDetected;
+};
+
+/*
+ * Source of frames: a sorted list of image files, a video or a recording
+ */
+class FrameSource
+{
+public:
+	FrameSource () : m_next(0), m_recording(NULL) {}
+	~FrameSource () { if (m_recording) fclose(m_recording); }
+
+	bool open (const char* path)
+	{
+		struct stat st;
+		if (stat(path, &st)!= 0) {
+			fprintf(stderr, "cannot access %s\n", path);
+			return false;
+		}
+
+		size_t len= strlen(path);
+		if (len> 6 && strcmp(path + len - 6, ".evrec")== 0) return openRecording(path);
+
+		if (!S_ISDIR(st.st_mode)) return m_capture.open(path);
+
+		DIR* dir= opendir(path);
+		if (!dir) {
+			fprintf(stderr, "cannot open directory %s\n", path);
+			return false;
+		}
+
+		struct dirent* entry;
+		while ((entry= readdir(dir))!= NULL) {
+			if (entry->d_name[0]== '.') continue;
+			m_files.push_back(std::string(path) + "/" + entry->d_name);
+		}
+		closedir(dir);
+
+		std::sort(m_files.begin(), m_files.end());
+
+		return !m_files.empty();
+	}
+
+	// Read the next frame as a single channel image (as the camera luma plane)
+	bool read (cv::Mat& gray, FrameInfo& info)
+	{
+		info.recorded= false;
+
+		if (m_recording) return readRecord(gray, info);
+
+		if (!m_files.empty()) {
+			while (m_next< m_files.size()) {
+				gray= cv::imread(m_files[m_next++], 0);
+				if (!gray.empty()) return true;
+			}
+			return false;
+		}
+
+		if (!m_capture.read(m_frame)) return false;
+		if (m_frame.channels()== 1) gray= m_frame;
+		else cv::cvtColor(m_frame, gray, CV_BGR2GRAY);
+
+		return true;
+	}
+
+private:
+	enum { RECORDING_MAGIC= 0x43525645, RECORDING_VERSION= 1, RECORD_HEADER_SIZE= 36 };
+
+	bool openRecording (const char* path)
+	{
+		m_recording= fopen(path, "rb");
+		if (!m_recording) return false;
+
+		int header[2];
+		if (fread(header, sizeof(header), 1, m_recording)!= 1 ||
+			header[0]!= RECORDING_MAGIC || header[1]!= RECORDING_VERSION) {
+			fprintf(stderr, "%s: not a frame recording\n", path);
+			return false;
+		}
+
+		return true;
+	}
+
+	// Records are little endian, as the hosts this is meant to run on
+	bool readRecord (cv::Mat& gray, FrameInfo& info)
+	{
+		unsigned char header[RECORD_HEADER_SIZE];
+		if (fread(header, sizeof(header), 1, m_recording)!= 1) return false;
+
+		int width, height;
+		memcpy(&width, header + 8, 4);
+		memcpy(&height, header + 12, 4);
+		memcpy(&info.rotation, header + 16, 4);
+		memcpy(&info.flip, header + 20, 4);
+		memcpy(&info.xVel, header + 24, 4);
+		memcpy(&info.yVel, header + 28, 4);
+		memcpy(&info.faceDetected, header + 32, 4);
+		if (width<= 0 || height<= 0) return false;
+
+		gray.create(height, width, CV_8UC1);
+		if (fread(gray.data, width * height, 1, m_recording)!= 1) return false;
+
+		info.recorded= true;
+
+		return true;
+	}
+
+	std::vector<std::string> m_files;
+	size_t m_next;
+	FILE* m_recording;
+	cv::VideoCapture m_capture;
+	cv::Mat m_frame;
+};
+
+static void usage (const char* name)
+{
+	fprintf(stderr,
+		"usage: %s [options] <frames directory | video file | recording.evrec>\n"
+		"  -c <file>  haar cascade (default: %s)\n"
+		"  -r <deg>   rotation: 0, 90, 180, 270 (default: 0)\n"
+		"  -f <flip>  flip: 0 none, 1 vertical, 2 horizontal (default: 0)\n"
+		"  -m <name>  motion estimator: lk, phase, template (default: lk)\n"
+		"  -l <n>     optical flow pyramid levels (lk)\n"
+		"  -w <size>  tracking working size, 0 for full resolution\n"
+		"  -u         rotate frames upright before tracking\n"
+		"  -a         asynchronous face detection (as on the device)\n"
+		"  -q         do not print per-frame results\n",
+		name, DEFAULT_CASCADE);
+}
+
+static void printStats (const VisionPipeline& pipeline)
+{
+	long long stats[VisionPipeline::NUM_STAGES * VisionPipeline::NUM_STATS];
+	int count= pipeline.getStats(stats, VisionPipeline::NUM_STAGES * VisionPipeline::NUM_STATS);
+	if (count< VisionPipeline::NUM_STAGES * VisionPipeline::NUM_STATS) return;
+
+	printf("# %-16s %8s %8s %8s %8s %8s\n", "stage (us)", "n", "p50", "p90", "p99", "max");
+	for (int stage= 0; stage< VisionPipeline::NUM_STAGES; stage++) {
+		const long long* s= &stats[stage * VisionPipeline::NUM_STATS];
+		printf("# %-16s %8lld %8lld %8lld %8lld %8lld\n", STAGE_NAMES[stage],
+			s[VisionPipeline::STAT_COUNT], s[VisionPipeline::STAT_P50],
+			s[VisionPipeline::STAT_P90], s[VisionPipeline::STAT_P99],
+			s[VisionPipeline::STAT_MAX]);
+	}
+}
+
+int main (int argc, char* argv[])
+{
+	const char* cascade= DEFAULT_CASCADE;
+	int rotation= 0;
+	int flip= 0;
+	bool synchronous= true;
+	bool quiet= false;
+	int estimator= MotionEstimator::SPARSE_LK;
+	int pyramidLevels= -1;
+	int workingSize= -1;
+	bool upright= false;
+
+	int opt;
+	while ((opt= getopt(argc, argv, "c:r:f:m:l:w:uaqh"))!= -1) {
+		switch (opt) {
+		case 'c': cascade= optarg; break;
+		case 'r': rotation= atoi(optarg); break;
+		case 'f': flip= atoi(optarg); break;
+		case 'm':
+			for (estimator= 0; estimator< MotionEstimator::NUM_TYPES; estimator++)
+				if (strcmp(optarg, MotionEstimator::getName(estimator))== 0) break;
+			break;
+		case 'l': pyramidLevels= atoi(optarg); break;
+		case 'w': workingSize= atoi(optarg); break;
+		case 'u': upright= true; break;
+		case 'a': synchronous= false; break;
+		case 'q': quiet= true; break;
+		default: usage(argv[0]); return 1;
+		}
+	}
+
+	if (optind!= argc - 1 ||
+		(rotation!= 0 && rotation!= 90 && rotation!= 180 && rotation!= 270) ||
+		flip< 0 || flip> 2 || estimator>= MotionEstimator::NUM_TYPES) {
+		usage(argv[0]);
+		return 1;
+	}
+
+	FrameSource source;
+	if (!source.open(argv[optind])) {
+		fprintf(stderr, "no frames found in %s\n", argv[optind]);
+		return 1;
+	}
+
+	VisionPipeline pipeline(cascade);
+	pipeline.setSynchronousDetection(synchronous);
+	pipeline.setMotionEstimator(estimator);
+	if (pyramidLevels>= 0) pipeline.setPyramidLevels(pyramidLevels);
+	if (workingSize>= 0) pipeline.setWorkingSize(workingSize);
+	pipeline.setNativeOrientation(!upright);
+
+	cv::Mat gray;
+	int frame= 0;
+	int faceEvents= 0;
+	bool lastFaceDetected= true;
+	unsigned long long totalTime= 0;
+
+	if (!quiet) printf("# frame xvel yvel face us\n");
+
+	FrameInfo info;
+	while (source.read(gray, info)) {
+		if (info.recorded) {
+			rotation= info.rotation;
+			flip= info.flip;
+		}
+
+		IplImage iplimg= gray;
+		CIplImage image(&iplimg);
+		float xVel= 0, yVel= 0;
+
+		unsigned long long start= CTimeUtil::GetNanoCount();
+		bool faceDetected= pipeline.processFrame(image, flip, rotation, xVel, yVel);
+		unsigned long long elapsed= (CTimeUtil::GetNanoCount() - start) / 1000;
+		totalTime+= elapsed;
+
+		if (faceDetected!= lastFaceDetected) {
+			faceEvents++;
+			if (!quiet) printf("# face %s\n", faceDetected? "found" : "lost");
+			lastFaceDetected= faceDetected;
+		}
+
+		if (!quiet) {
+			printf("%d %.4f %.4f %d %llu", frame, xVel, yVel, faceDetected? 1 : 0, elapsed);
+			if (info.recorded) printf(" %.4f %.4f %d", info.xVel, info.yVel, info.faceDetected);
+			printf("\n");
+		}
+
+		frame++;
+	}
+
+	printf("# frames: %d, face events: %d, mean time: %llu us\n", frame, faceEvents,
+		frame> 0? totalTime / frame : 0);
+	printStats(pipeline);
+
+	return 0;
+}
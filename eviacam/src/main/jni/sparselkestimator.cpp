@@ -0,0 +1,270 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2008 - 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include "sparselkestimator.h"
+
+#include <opencv2/video/tracking.hpp>
+#include <string.h>
+
+namespace eviacam {
+
+// constants
+#define DEFAULT_PYRAMID_LEVELS 2
+#define MAX_PYRAMID_LEVELS 5
+
+// Optical flow search window
+static const cv::Size OF_WINDOW_SIZE(11, 11);
+
+SparseLKEstimator::SparseLKEstimator ()
+: m_pyramidLevels(DEFAULT_PYRAMID_LEVELS)
+, m_pyrPrevValid(false)
+, m_corner_count(0)
+, m_refresh(true)
+{
+	memset(m_corners, 0, sizeof(m_corners));
+	memset(m_cellCooldown, 0, sizeof(m_cellCooldown));
+}
+
+void SparseLKEstimator::setPyramidLevels (int levels)
+{
+	if (levels< 0) levels= 0;
+	else if (levels> MAX_PYRAMID_LEVELS) levels= MAX_PYRAMID_LEVELS;
+
+	if (levels!= m_pyramidLevels) {
+		m_pyramidLevels= levels;
+		m_pyrPrevValid= false;
+	}
+}
+
+/*
+ * Find new corners inside a cell which already contains cellCorners corners.
+ * Candidates too close to the existing corners are discarded.
+ *
+ * Returns the number of corners added
+ */
+int SparseLKEstimator::findCellCorners (const cv::Mat& image, const cv::Rect& cell,
+	int cellCorners, unsigned long long& featuresTime, unsigned long long& subpixTime)
+{
+	#define QUALITY_LEVEL  0.001   // 0.01
+	#define MIN_DISTANTE 2
+	#define EXTRA_CANDIDATES 2
+
+	CvPoint2D32f candidates[CORNERS_PER_CELL + EXTRA_CANDIDATES];
+	int count= CORNERS_PER_CELL + EXTRA_CANDIDATES;
+
+	IplImage cellImg= image(cell);
+
+	unsigned long long start= CTimeUtil::GetNanoCount();
+	cvGoodFeaturesToTrack(&cellImg, NULL, NULL, candidates,
+		&count, QUALITY_LEVEL, MIN_DISTANTE);
+	unsigned long long end= CTimeUtil::GetNanoCount();
+	featuresTime+= end - start;
+
+	if (count== 0) return 0;
+
+	CvTermCriteria termcrit (CV_TERMCRIT_ITER | CV_TERMCRIT_EPS, 20, 0.03);
+	cvFindCornerSubPix(&cellImg, candidates, count,
+		cvSize(5, 5), cvSize(-1, -1), termcrit);
+	subpixTime+= CTimeUtil::GetNanoCount() - end;
+
+	// candidates are sorted by quality, keep the best ones not too close to others
+	int added= 0;
+	for (int i= 0; i< count && cellCorners + added< CORNERS_PER_CELL &&
+		m_corner_count< NUM_CORNERS; i++) {
+		CvPoint2D32f p= cvPoint2D32f(candidates[i].x + cell.x, candidates[i].y + cell.y);
+
+		bool isolated= true;
+		for (int j= 0; j< m_corner_count && isolated; j++) {
+			float dx= m_corners[j].x - p.x;
+			float dy= m_corners[j].y - p.y;
+			isolated= (dx * dx + dy * dy>= MIN_DISTANTE * MIN_DISTANTE);
+		}
+
+		if (isolated) {
+			m_corners[m_corner_count++]= p;
+			added++;
+		}
+	}
+
+	return added;
+}
+
+/*
+ * Find new features to track in the cells of the center of the region
+ * which have lost theirs
+ */
+void SparseLKEstimator::replenishCorners (const cv::Mat& image, const cv::Rect& region)
+{
+	//
+	// Set smaller area to extract features to track
+	//
+	#define SMALL_AREA_RATIO 0.4f
+
+	// frames to wait before searching again a featureless cell
+	#define CELL_RETRY_FRAMES 5
+
+	cv::Rect featuresArea(
+		cvFloor(region.x + region.width * ((1.0f - SMALL_AREA_RATIO) / 2.0f)),
+		cvFloor(region.y + region.height * ((1.0f - SMALL_AREA_RATIO) / 2.0f)),
+		cvFloor(region.width * SMALL_AREA_RATIO),
+		cvFloor(region.height * SMALL_AREA_RATIO));
+	featuresArea&= cv::Rect(0, 0, image.cols, image.rows);
+	if (featuresArea.width< GRID_SIZE || featuresArea.height< GRID_SIZE) return;
+
+	// corners in each cell
+	int cellCorners[NUM_CELLS];
+	memset(cellCorners, 0, sizeof(cellCorners));
+	for (int i= 0; i< m_corner_count; i++) {
+		int col= cvFloor((m_corners[i].x - featuresArea.x) * GRID_SIZE / featuresArea.width);
+		int row= cvFloor((m_corners[i].y - featuresArea.y) * GRID_SIZE / featuresArea.height);
+		if (col>= 0 && col< GRID_SIZE && row>= 0 && row< GRID_SIZE)
+			cellCorners[row * GRID_SIZE + col]++;
+	}
+
+	unsigned long long featuresTime= 0, subpixTime= 0;
+	bool searched= false;
+
+	for (int cell= 0; cell< NUM_CELLS && m_corner_count< NUM_CORNERS; cell++) {
+		if (cellCorners[cell]>= CORNERS_PER_CELL) continue;
+		if (m_cellCooldown[cell]> 0) {
+			m_cellCooldown[cell]--;
+			continue;
+		}
+
+		int row= cell / GRID_SIZE;
+		int col= cell % GRID_SIZE;
+		int x0= featuresArea.x + featuresArea.width * col / GRID_SIZE;
+		int y0= featuresArea.y + featuresArea.height * row / GRID_SIZE;
+		int x1= featuresArea.x + featuresArea.width * (col + 1) / GRID_SIZE;
+		int y1= featuresArea.y + featuresArea.height * (row + 1) / GRID_SIZE;
+
+		searched= true;
+		if (findCellCorners(image, cv::Rect(x0, y0, x1 - x0, y1 - y0), cellCorners[cell],
+			featuresTime, subpixTime)== 0) {
+			// probably a flat area, do not insist on every frame
+			m_cellCooldown[cell]= CELL_RETRY_FRAMES;
+		}
+	}
+
+	// one sample per frame, regardless of the number of cells searched
+	if (searched) {
+		m_stats[STAGE_FEATURES].add((unsigned long) (featuresTime / 1000ULL));
+		m_stats[STAGE_SUBPIX].add((unsigned long) (subpixTime / 1000ULL));
+	}
+}
+
+float SparseLKEstimator::estimate (const cv::Mat& prev, const cv::Mat& curr, bool continuous,
+	const cv::Rect& region, cv::Point2f& motion)
+{
+	motion= cv::Point2f(0, 0);
+
+	/*
+	 * The pyramid (and derivatives) of the current image is kept and used
+	 * as the previous pyramid for the next call so that each image is
+	 * only processed once.
+	 */
+	int levels;
+	{
+	StageTimer timer(m_stats[STAGE_PREPARE]);
+	if (!continuous || !m_pyrPrevValid) {
+		cv::buildOpticalFlowPyramid(prev, m_pyrPrev, OF_WINDOW_SIZE, m_pyramidLevels);
+		// corners refer to another image
+		m_corner_count= 0;
+	}
+	levels= cv::buildOpticalFlowPyramid(curr, m_pyrCurr, OF_WINDOW_SIZE, m_pyramidLevels);
+	}
+
+	// select everything again?
+	if (m_refresh) {
+		m_corner_count= 0;
+		memset(m_cellCooldown, 0, sizeof(m_cellCooldown));
+		m_refresh= false;
+	}
+
+	// need to update corners?
+	if (m_corner_count< NUM_CORNERS) replenishCorners(prev, region);
+
+	//
+	// Track corners forward and back
+	//
+	#define MAX_FORWARD_BACKWARD_ERROR 0.5f
+
+	CvPoint2D32f new_corners[NUM_CORNERS];
+	CvPoint2D32f back_corners[NUM_CORNERS];
+	unsigned char status[NUM_CORNERS];
+	unsigned char back_status[NUM_CORNERS];
+
+	if (m_corner_count> 0) {
+		StageTimer timer(m_stats[STAGE_MATCH]);
+
+		cv::TermCriteria termcrit(cv::TermCriteria::COUNT | cv::TermCriteria::EPS, 14, 0.03);
+
+		// wrap the arrays, the C++ API does not allocate when sizes match
+		cv::Mat prevPts(m_corner_count, 1, CV_32FC2, m_corners);
+		cv::Mat nextPts(m_corner_count, 1, CV_32FC2, new_corners);
+		cv::Mat backPts(m_corner_count, 1, CV_32FC2, back_corners);
+		cv::Mat statusMat(m_corner_count, 1, CV_8UC1, status);
+		cv::Mat backStatusMat(m_corner_count, 1, CV_8UC1, back_status);
+
+		cv::calcOpticalFlowPyrLK(m_pyrPrev, m_pyrCurr, prevPts, nextPts, statusMat,
+			cv::noArray(), OF_WINDOW_SIZE, levels, termcrit);
+
+		// the backward flow starts from the original location, converges quickly
+		memcpy(back_corners, m_corners, m_corner_count * sizeof(CvPoint2D32f));
+		cv::calcOpticalFlowPyrLK(m_pyrCurr, m_pyrPrev, nextPts, backPts, backStatusMat,
+			cv::noArray(), OF_WINDOW_SIZE, levels, termcrit, cv::OPTFLOW_USE_INITIAL_FLOW);
+	}
+
+	//
+	// accumulate motion
+	//
+	int valid_corners = 0;
+
+	for (int i = 0; i< m_corner_count; i++) {
+		float fbx= back_corners[i].x - m_corners[i].x;
+		float fby= back_corners[i].y - m_corners[i].y;
+
+		if (status[i] && back_status[i] &&
+			fbx * fbx + fby * fby<= MAX_FORWARD_BACKWARD_ERROR * MAX_FORWARD_BACKWARD_ERROR &&
+			m_corners[i].x >= region.x &&
+			m_corners[i].x < region.x + region.width &&
+			m_corners[i].y >= region.y &&
+			m_corners[i].y < region.y + region.height) {
+			motion.x += new_corners[i].x - m_corners[i].x;
+			motion.y += new_corners[i].y - m_corners[i].y;
+
+			// Save new corner location
+			m_corners[valid_corners++] = new_corners[i];
+		}
+	}
+	m_corner_count = valid_corners;
+
+	if (valid_corners) {
+		motion.x /= (float) valid_corners;
+		motion.y /= (float) valid_corners;
+	}
+
+	// Store current pyramid as previous
+	m_pyrPrev.swap(m_pyrCurr);
+	m_pyrPrevValid= true;
+
+	return (float) valid_corners / (float) NUM_CORNERS;
+}
+
+}
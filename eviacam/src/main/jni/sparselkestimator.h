@@ -0,0 +1,82 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#ifndef SPARSELKESTIMATOR_H
+#define SPARSELKESTIMATOR_H
+
+#include <opencv/cv.h>
+#include <vector>
+
+#include "motionestimator.h"
+
+namespace eviacam {
+
+/**
+ * Pyramidal Lucas-Kanade optical flow over a few good features to track
+ * extracted from the center of the region. The motion is the average
+ * displacement of the features.
+ *
+ * The center of the region is split into a grid of cells. When features
+ * are lost only the cells left without enough of them are searched again,
+ * so that most frames need no feature extraction or just a small local one.
+ * Features whose backward flow does not return to the starting point
+ * (forward-backward error) are dropped as outliers.
+ */
+class SparseLKEstimator : public MotionEstimator
+{
+public:
+	SparseLKEstimator ();
+
+	virtual EType getType () const { return SPARSE_LK; }
+	virtual void refresh () { m_refresh= true; }
+	virtual float estimate (const cv::Mat& prev, const cv::Mat& curr, bool continuous,
+		const cv::Rect& region, cv::Point2f& motion);
+
+	/**
+	* Number of pyramid levels (besides the original image) used by the
+	* optical flow. Higher values track faster motion at a higher cost.
+	*/
+	int getPyramidLevels () const { return m_pyramidLevels; }
+	void setPyramidLevels (int levels);
+
+private:
+	// Optical flow pyramids of the previous and current images.
+	// The current pyramid is reused as the previous one in the next call.
+	int m_pyramidLevels;
+	std::vector<cv::Mat> m_pyrPrev, m_pyrCurr;
+	bool m_pyrPrevValid;
+
+	// Corner array (coordinates of the previous image)
+	enum { GRID_SIZE= 3, NUM_CELLS= GRID_SIZE * GRID_SIZE, CORNERS_PER_CELL= 2,
+		NUM_CORNERS = NUM_CELLS * CORNERS_PER_CELL };
+	CvPoint2D32f m_corners[NUM_CORNERS];
+	int m_corner_count;
+	bool m_refresh;
+
+	// Frames to wait before searching again a cell where no corners were found
+	int m_cellCooldown[NUM_CELLS];
+
+	void replenishCorners (const cv::Mat& image, const cv::Rect& region);
+	int findCellCorners (const cv::Mat& image, const cv::Rect& cell, int cellCorners,
+		unsigned long long& featuresTime, unsigned long long& subpixTime);
+};
+
+}
+
+#endif
@@ -0,0 +1,136 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include "templatematchingestimator.h"
+
+#include <opencv2/imgproc/imgproc.hpp>
+
+namespace eviacam {
+
+// Patches grid (GRID_SIZE x GRID_SIZE patches)
+#define GRID_SIZE 3
+
+// Side of the patches and max displacement searched (in pixels)
+#define PATCH_SIZE 12
+#define SEARCH_RADIUS 8
+
+// Fraction of the region (centered) where patches are placed
+#define PATCHES_AREA_RATIO 0.5f
+
+// Patches with less contrast (standard deviation) are not tracked
+#define MIN_PATCH_STDDEV 4.0
+
+// Minimum normalized correlation to accept a match
+#define MIN_SCORE 0.6
+
+TemplateMatchingEstimator::TemplateMatchingEstimator ()
+{
+	m_result.create(2 * SEARCH_RADIUS + 1, 2 * SEARCH_RADIUS + 1, CV_32FC1);
+}
+
+/*
+ * Sub-pixel location of a peak from its neighbours (fits a parabola)
+ */
+static
+float subPixelOffset (float left, float center, float right)
+{
+	float den= left - 2.0f * center + right;
+	if (den>= 0) return 0;	// not a maximum
+	return 0.5f * (left - right) / den;
+}
+
+/*
+ * Find the patch of prev centered at center in curr
+ */
+bool TemplateMatchingEstimator::matchPatch (const cv::Mat& prev, const cv::Mat& curr,
+	const cv::Point& center, cv::Point2f& displacement)
+{
+	cv::Rect bounds(0, 0, prev.cols, prev.rows);
+
+	cv::Rect patchRect(center.x - PATCH_SIZE / 2, center.y - PATCH_SIZE / 2,
+		PATCH_SIZE, PATCH_SIZE);
+	if ((patchRect & bounds)!= patchRect) return false;
+
+	cv::Mat patch= prev(patchRect);
+
+	// skip flat patches, the correlation is meaningless
+	cv::Scalar mean, stddev;
+	cv::meanStdDev(patch, mean, stddev);
+	if (stddev[0]< MIN_PATCH_STDDEV) return false;
+
+	cv::Rect searchRect= cv::Rect(patchRect.x - SEARCH_RADIUS, patchRect.y - SEARCH_RADIUS,
+		PATCH_SIZE + 2 * SEARCH_RADIUS, PATCH_SIZE + 2 * SEARCH_RADIUS) & bounds;
+
+	cv::matchTemplate(curr(searchRect), patch, m_result, cv::TM_CCOEFF_NORMED);
+
+	double maxVal;
+	cv::Point maxLoc;
+	cv::minMaxLoc(m_result, NULL, &maxVal, NULL, &maxLoc);
+	if (maxVal< MIN_SCORE) return false;
+
+	cv::Point2f peak(maxLoc.x, maxLoc.y);
+	if (maxLoc.x> 0 && maxLoc.x< m_result.cols - 1) {
+		peak.x+= subPixelOffset(m_result.at<float>(maxLoc.y, maxLoc.x - 1),
+			m_result.at<float>(maxLoc.y, maxLoc.x), m_result.at<float>(maxLoc.y, maxLoc.x + 1));
+	}
+	if (maxLoc.y> 0 && maxLoc.y< m_result.rows - 1) {
+		peak.y+= subPixelOffset(m_result.at<float>(maxLoc.y - 1, maxLoc.x),
+			m_result.at<float>(maxLoc.y, maxLoc.x), m_result.at<float>(maxLoc.y + 1, maxLoc.x));
+	}
+
+	displacement.x= searchRect.x + peak.x - patchRect.x;
+	displacement.y= searchRect.y + peak.y - patchRect.y;
+
+	return true;
+}
+
+float TemplateMatchingEstimator::estimate (const cv::Mat& prev, const cv::Mat& curr, bool,
+	const cv::Rect& region, cv::Point2f& motion)
+{
+	StageTimer timer(m_stats[STAGE_MATCH]);
+
+	motion= cv::Point2f(0, 0);
+
+	int matched= 0;
+	for (int row= 0; row< GRID_SIZE; row++) {
+		for (int col= 0; col< GRID_SIZE; col++) {
+			// patch centers evenly distributed in the center of the region
+			cv::Point center(
+				cvRound(region.x + region.width * ((1.0f - PATCHES_AREA_RATIO) / 2.0f +
+					PATCHES_AREA_RATIO * (col + 0.5f) / GRID_SIZE)),
+				cvRound(region.y + region.height * ((1.0f - PATCHES_AREA_RATIO) / 2.0f +
+					PATCHES_AREA_RATIO * (row + 0.5f) / GRID_SIZE)));
+
+			cv::Point2f displacement;
+			if (matchPatch(prev, curr, center, displacement)) {
+				motion+= displacement;
+				matched++;
+			}
+		}
+	}
+
+	if (matched) {
+		motion.x/= (float) matched;
+		motion.y/= (float) matched;
+	}
+
+	return (float) matched / (float) (GRID_SIZE * GRID_SIZE);
+}
+
+}
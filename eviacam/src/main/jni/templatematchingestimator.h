@@ -0,0 +1,53 @@
+/*
+ * Enable Viacam for Android, a camera based mouse emulator
+ *
+ * Copyright (C) 2015 Cesar Mauri Loba (CREA Software Systems)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#ifndef TEMPLATEMATCHINGESTIMATOR_H
+#define TEMPLATEMATCHINGESTIMATOR_H
+
+#include "motionestimator.h"
+
+namespace eviacam {
+
+/**
+ * Tracks a grid of small patches taken from the center of the region
+ * using normalized cross correlation in a small search window. The
+ * motion is the average displacement of the patches that match well.
+ *
+ * The cost is bounded by the number of patches and the search radius.
+ */
+class TemplateMatchingEstimator : public MotionEstimator
+{
+public:
+	TemplateMatchingEstimator ();
+
+	virtual EType getType () const { return TEMPLATE_MATCHING; }
+	virtual float estimate (const cv::Mat& prev, const cv::Mat& curr, bool continuous,
+		const cv::Rect& region, cv::Point2f& motion);
+
+private:
+	// Correlation scores (reused between patches)
+	cv::Mat m_result;
+
+	bool matchPatch (const cv::Mat& prev, const cv::Mat& curr, const cv::Point& center,
+		cv::Point2f& displacement);
+};
+
+}
+
+#endif
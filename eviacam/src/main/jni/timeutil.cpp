@@ -26,6 +26,7 @@
 // Linux
 #include <stdlib.h>
 #include <sys/time.h>
+#include <time.h>
 #endif
 
 unsigned long CTimeUtil::GetMiliCount()
@@ -42,3 +43,21 @@ unsigned long CTimeUtil::GetMiliCount()
 	return (((unsigned long) tv.tv_sec * 1000000 + (unsigned long) tv.tv_usec) / 1000);
 #endif	
 }
+
+unsigned long long CTimeUtil::GetNanoCount()
+{
+#if defined(WIN32)
+	// Windows
+	LARGE_INTEGER count, frequency;
+	QueryPerformanceCounter(&count);
+	QueryPerformanceFrequency(&frequency);
+
+	return (unsigned long long) ((double) count.QuadPart * 1000000000.0 / (double) frequency.QuadPart);
+#else
+	// Linux
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+
+	return (unsigned long long) ts.tv_sec * 1000000000ULL + (unsigned long long) ts.tv_nsec;
+#endif
+}
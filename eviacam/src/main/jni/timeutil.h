@@ -17,8 +17,16 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+#ifndef TIMEUTIL_H
+#define TIMEUTIL_H
+
 class CTimeUtil
 {
 public:
 	static unsigned long GetMiliCount();
+
+	// Monotonic clock in nanoseconds (not affected by wall clock changes)
+	static unsigned long long GetNanoCount();
 };
+
+#endif
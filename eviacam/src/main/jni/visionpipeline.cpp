@@ -21,49 +21,71 @@
 #include "crvimage.h"
 #include "timeutil.h"
 #include "eviacam.h"
+#include "orientation.h"
+#include "sparselkestimator.h"
 
 #include <opencv2/imgproc/imgproc.hpp>
-#include <opencv2/video/tracking.hpp>
 #include <opencv/highgui.h>
 #include <math.h>
+#include <stdlib.h>
+#include <algorithm>
 
 namespace eviacam {
 
 // constants
 #define DEFAULT_TRACK_AREA_WIDTH 0.6f
 #define DEFAULT_TRACK_AREA_HEIGHT 0.6f
+#define DEFAULT_PYRAMID_LEVELS 2
+#define DEFAULT_WORKING_SIZE 128
+#define MIN_WORKING_SIZE 32
 
 VisionPipeline::VisionPipeline(const char* cascadePath)
 : m_faceDetection(cascadePath)
+, m_cpuUsage(CPU_AUTO)
+, m_standby(false)
+, m_standbyCpuUsage(CPU_LOWEST)
 , m_trackFace(true)
-, m_corner_count(0)
+, m_nativeOrientation(true)
+, m_feedbackValid(false)
+, m_motionEstimator(NULL)
+, m_estimatorType(MotionEstimator::SPARSE_LK)
+, m_pyramidLevels(DEFAULT_PYRAMID_LEVELS)
+, m_trackingQuality(0)
+, m_workingSize(DEFAULT_WORKING_SIZE)
+, m_workScale(1.0f)
+, m_workTrackWidth(0)
+, m_workPrevValid(false)
 {
 	m_floatTrackArea.set(
 		cvPoint2D32f((1.0f - DEFAULT_TRACK_AREA_WIDTH) / 2.0f,
 					(1.0f - DEFAULT_TRACK_AREA_HEIGHT) / 2.0f),
 		cvSize2D32f(DEFAULT_TRACK_AREA_WIDTH, DEFAULT_TRACK_AREA_HEIGHT));
-	memset(m_corners, 0, sizeof(m_corners));
+	memset(m_estimators, 0, sizeof(m_estimators));
+	updateMotionEstimator();
 }
 
 VisionPipeline::~VisionPipeline ()
 {
+	for (int i= 0; i< MotionEstimator::NUM_TYPES; i++) delete m_estimators[i];
 }
 
+/*
+ * Buffers are allocated once with room for both orientations, so that
+ * a rotation change only re-points the image headers (see Reshape).
+ *
+ * Return true when the size changes, the contents of m_imgPrev are
+ * meaningless in that case
+ */
 bool VisionPipeline::allocWorkingSpace (int width, int height)
 {
-	bool retval;
-
 	if (!m_imgPrev.Initialized () ||
 		width != m_imgPrev.Width() ||
 		height != m_imgPrev.Height() ) {
 
-		retval= m_imgPrev.Create (width, height, IPL_DEPTH_8U, "GRAY");
-		// TODO provide better error checking
-		assert (retval);
-
-		retval= m_imgCurr.Create (width, height, IPL_DEPTH_8U, "GRAY");
+		m_imgPrev.Reshape (width, height);
+		m_imgCurr.Reshape (width, height);
 		// TODO provide better error checking
-		assert (retval);
+		assert (m_imgPrev.Initialized () && m_imgCurr.Initialized ());
 
 		return true;
 	}
@@ -97,18 +119,6 @@ cv::Point rotatePoint (int rotation, const cv::Point& p, int newWidth, int newHe
 	return result;
 }
 
-static
-void drawCorners(CIplImage &image, CvPoint2D32f corners[], int num_corners, CvScalar color, int rotation)
-{
-	for (int i = 0; i < num_corners; i++) {
-		cv::Point p= rotatePoint(
-				rotation,
-				cvPoint(corners[i].x, corners[i].y),
-				image.Width(), image.Height());
-		cvCircle(image.ptr(), p, 1, color);
-	}
-}
-
 static
 void drawCross(CIplImage &image, const cv::Point& p,
 			   CvScalar color, int thickness= 1, int radius= 2)
@@ -134,29 +144,144 @@ void drawCross(CIplImage &image, const cv::Point& p,
 	cvLine(image.ptr(), p1, p2, color, thickness);
 }
 
-bool VisionPipeline::motionTracker(CIplImage &image, int rotation, float &xVel, float &yVel)
+/*
+ * Copy the source image into a gray destination, converting it when needed
+ */
+static
+void toGray(const IplImage* src, IplImage* dst)
+{
+	if (src->nChannels == 1) cvCopy(src, dst);
+	else cvCvtColor(src, dst, CV_BGR2GRAY);
+}
+
+/*
+ * Copy the working area of a frame into a working image, scaling it if needed.
+ * When no scaling is needed only a header is created (no copy).
+ */
+void VisionPipeline::toWorkingImage (const CIplImage& frame, cv::Mat& buffer, cv::Mat& dst) const
+{
+	cv::Mat area= cv::cvarrToMat(frame.ptr())(m_workRect);
+
+	if (m_workScale== 1.0f) dst= area;
+	else {
+		// scaled images always fit in a m_workingSize square buffer
+		cv::Size size(std::min(cvRound(area.cols * m_workScale), m_workingSize),
+			std::min(cvRound(area.rows * m_workScale), m_workingSize));
+		if (buffer.rows< m_workingSize || buffer.cols< m_workingSize)
+			buffer.create(m_workingSize, m_workingSize, CV_8UC1);
+		dst= buffer(cv::Rect(0, 0, size.width, size.height));
+		cv::resize(area, dst, size, 0, 0, cv::INTER_AREA);
+	}
+}
+
+/*
+ * Select the working area (the part of the frame where motion is estimated)
+ * and build the working images.
+ *
+ * In adaptive mode (m_workingSize> 0) the working area is the tracking area
+ * expanded by a margin, scaled so that its larger side is at most m_workingSize
+ * pixels. The working area is only updated when the tracking area leaves it or
+ * its size changes noticeably, so most of the time the working image of the
+ * previous frame (and the data the estimator derived from it) can be reused.
+ * Otherwise the working area is the whole frame.
+ *
+ * Returns true when m_workPrev is the working image built for the previous frame
+ */
+bool VisionPipeline::prepareWorkingImages (const CvRect& trackArea)
+{
+	CvSize frameSize= m_imgCurr.GetSize();
+	cv::Rect frameRect(0, 0, frameSize.width, frameSize.height);
+	cv::Rect track(trackArea.x, trackArea.y, trackArea.width, trackArea.height);
+	track&= frameRect;
+
+	cv::Rect workRect= m_workRect;
+	if (m_workingSize> 0) {
+		if (workRect.area()== 0 || (workRect & frameRect)!= workRect ||
+			(workRect & track)!= track ||
+			abs(track.width - m_workTrackWidth)> m_workTrackWidth / 4) {
+			int marginX= track.width / 4;
+			int marginY= track.height / 4;
+			workRect= cv::Rect(track.x - marginX, track.y - marginY,
+				track.width + 2 * marginX, track.height + 2 * marginY) & frameRect;
+			m_workTrackWidth= track.width;
+		}
+	}
+	else workRect= frameRect;
+
+	if (workRect!= m_workRect || workRect.area()== 0) {
+		if (workRect.area()== 0) workRect= frameRect;
+		m_workRect= workRect;
+
+		int maxSide= std::max(workRect.width, workRect.height);
+		m_workScale= (m_workingSize> 0 && maxSide> m_workingSize?
+			(float) m_workingSize / (float) maxSide : 1.0f);
+
+		// previous working image no longer valid
+		m_workPrevValid= false;
+	}
+
+	/*
+	 * The working image of the current frame is kept and used as the
+	 * previous one for the next frame (see processFrame)
+	 */
+	bool continuous= m_workPrevValid;
+	if (!continuous) toWorkingImage(m_imgPrev, m_workBufferPrev, m_workPrev);
+	toWorkingImage(m_imgCurr, m_workBufferCurr, m_workCurr);
+
+	return continuous;
+}
+
+/*
+ * Switch to the requested motion estimator (tracking thread only)
+ */
+void VisionPipeline::updateMotionEstimator ()
+{
+	int type= m_estimatorType;
+
+	if (!m_estimators[type]) m_estimators[type]= MotionEstimator::create(type);
+
+	if (type== MotionEstimator::SPARSE_LK) {
+		static_cast<SparseLKEstimator*>(m_estimators[type])->setPyramidLevels(m_pyramidLevels);
+	}
+
+	if (m_estimators[type]!= m_motionEstimator) {
+		m_motionEstimator= m_estimators[type];
+		m_motionEstimator->refresh();
+		// data the estimator kept from its last use is stale
+		m_workPrevValid= false;
+
+		LOGD("Motion estimator: %s", MotionEstimator::getName(type));
+	}
+}
+
+bool VisionPipeline::motionTracker(const CIplImage &image, int flip, int rotation, float &xVel, float &yVel)
 {
-	bool updateFeatures = false;
 	bool faceDetected= false;
 
 	// Check if face detected and update floatTrackArea as needed
 	{
 	CvSize frameSize;
 	CvRect faceRegion;
-	if (m_faceDetection.retrieveDetectionInfo(faceDetected, frameSize, faceRegion) && faceDetected) {
+	bool newDetection= m_faceDetection.retrieveDetectionInfo(faceDetected, frameSize, faceRegion);
+	if (newDetection) m_cpuGovernor.detectionResult(faceDetected);
+	if (newDetection && faceDetected) {
 		// update floatTrackArea
 		m_floatTrackArea.setReferenceSize(frameSize);
 		m_floatTrackArea.set(faceRegion);
-		updateFeatures = true;
+		// select again what is tracked. Otherwise the estimator keeps what it
+		// tracks and tops it up by itself (e.g. SparseLKEstimator when it has
+		// lost corners)
+		// TODO: force refresh when image rotated
+		m_motionEstimator->refresh();
 	}
-	else
-		// need to update corners?
-		// TODO: force corner update when image rotated
-		if (m_corner_count< NUM_CORNERS) updateFeatures = true;
 	}
 
 	// Submit frame for face detection
-	m_faceDetection.submitFrame(m_imgCurr);
+	{
+	StageTimer timer(m_stats[STAGE_FACE_SUBMIT]);
+	if (m_nativeOrientation) m_faceDetection.submitFrame(m_imgCurr, flip, rotation);
+	else m_faceDetection.submitFrame(m_imgCurr);
+	}
 
 	// set current image size
 	m_floatTrackArea.setReferenceSize(m_imgCurr.GetSize());
@@ -167,120 +292,36 @@ bool VisionPipeline::motionTracker(CIplImage &image, int rotation, float &xVel,
 	m_floatTrackArea.get(trackAreaLocation, trackAreaSize);
 
 
+	// Select the working area and prepare the working images
+	CvRect trackArea;
+	trackArea.x= trackAreaLocation.x;
+	trackArea.y= trackAreaLocation.y;
+	trackArea.width= trackAreaSize.width;
+	trackArea.height= trackAreaSize.height;
 
-	if (updateFeatures) {
-		// 
-		// Set smaller area to extract features to track
-		//
-		#define SMALL_AREA_RATIO 0.4f
-
-		CvRect featuresTrackArea;
-		featuresTrackArea.x = trackAreaLocation.x + 
-			trackAreaSize.width * ((1.0f - SMALL_AREA_RATIO) / 2.0f);
-		featuresTrackArea.y = trackAreaLocation.y + 
-			trackAreaSize.height * ((1.0f - SMALL_AREA_RATIO) / 2.0f);
-		featuresTrackArea.width = trackAreaSize.width * SMALL_AREA_RATIO;
-		featuresTrackArea.height = trackAreaSize.height * SMALL_AREA_RATIO;
-
-		//
-		// Find features to track
-		//
-		#define QUALITY_LEVEL  0.001   // 0.01
-		#define MIN_DISTANTE 2
-
-		m_imgPrev.SetROI(featuresTrackArea);
-		m_imgCurr.SetROI(featuresTrackArea);
-		m_corner_count = NUM_CORNERS;
-		cvGoodFeaturesToTrack(m_imgPrev.ptr(), NULL, NULL, m_corners,
-			&m_corner_count, QUALITY_LEVEL, MIN_DISTANTE);
-		CvTermCriteria termcrit (CV_TERMCRIT_ITER | CV_TERMCRIT_EPS, 20, 0.03);
-		cvFindCornerSubPix(m_imgPrev.ptr(), m_corners, m_corner_count,
-			cvSize(5, 5), cvSize(-1, -1), termcrit);
-		m_imgPrev.ResetROI();
-		m_imgCurr.ResetROI();
-
-		//
-		// Update features location
-		//
-		for (int i = 0; i < m_corner_count; i++) {
-			m_corners[i].x += featuresTrackArea.x;
-			m_corners[i].y += featuresTrackArea.y;
-		}
+	bool continuous= prepareWorkingImages(trackArea);
 
-		//LOGV("Features updated\n");
-	}
+	// Track area in working image coordinates
+	cv::Rect trackWorkArea(
+		cvFloor((trackAreaLocation.x - m_workRect.x) * m_workScale),
+		cvFloor((trackAreaLocation.y - m_workRect.y) * m_workScale),
+		cvFloor(trackAreaSize.width * m_workScale),
+		cvFloor(trackAreaSize.height * m_workScale));
 
 	//
-	// Track corners
-	//
-	CvPoint2D32f new_corners[NUM_CORNERS];
-	char status[NUM_CORNERS];
-	
-	CvTermCriteria termcrit;
-	termcrit.type = CV_TERMCRIT_ITER | CV_TERMCRIT_EPS;
-	termcrit.max_iter = 14;
-	termcrit.epsilon = 0.03;
-	
-	CvRect ofTrackArea;
-	ofTrackArea.x = trackAreaLocation.x;
-	ofTrackArea.y = trackAreaLocation.y;
-	ofTrackArea.width = trackAreaSize.width;
-	ofTrackArea.height = trackAreaSize.height;
-	m_imgPrev.SetROI(ofTrackArea);
-	m_imgCurr.SetROI(ofTrackArea);
-
-	// Update corners location for the new ROI
-	for (int i = 0; i < m_corner_count; i++) {
-		m_corners[i].x -= ofTrackArea.x;
-		m_corners[i].y -= ofTrackArea.y;
-	}
-	
-	cvCalcOpticalFlowPyrLK(m_imgPrev.ptr(), m_imgCurr.ptr(), NULL,
-		NULL, m_corners, new_corners, m_corner_count, cvSize(11, 11), 0, status,
-		NULL, termcrit, 0);	
-	
-	m_imgPrev.ResetROI();
-	m_imgCurr.ResetROI();
-
-	// Update corners location
-	for (int i = 0; i < m_corner_count; i++) {
-		m_corners[i].x += ofTrackArea.x;
-		m_corners[i].y += ofTrackArea.y;
-		new_corners[i].x += ofTrackArea.x;
-		new_corners[i].y += ofTrackArea.y;
-	}
-
+	// Estimate motion (back to frame pixels)
 	//
-	// accumulate motion
-	//	
-	int valid_corners = 0;
-	xVel= 0; yVel= 0;
-
-	for (int i = 0; i< m_corner_count; i++) {
-		if (status[i] &&
-			m_corners[i].x >= trackAreaLocation.x &&
-			m_corners[i].x < trackAreaLocation.x + trackAreaSize.width &&
-			m_corners[i].y >= trackAreaLocation.y &&
-			m_corners[i].y < trackAreaLocation.y + trackAreaSize.height) {
-			xVel += new_corners[i].x - m_corners[i].x;
-			yVel += new_corners[i].y - m_corners[i].y;
-
-			// Save new corner location
-			m_corners[valid_corners++] = new_corners[i];
-		}
-	}
-	m_corner_count = valid_corners;
-
-	if (valid_corners) {
-		xVel = xVel / (float) valid_corners;
-		yVel = yVel / (float) valid_corners;
-	}
-	else {
-		xVel = yVel = 0;
-	}
+	cv::Point2f motion;
+	m_trackingQuality= m_motionEstimator->estimate(m_workPrev, m_workCurr, continuous,
+		trackWorkArea, motion);
+	xVel= motion.x / m_workScale;
+	yVel= motion.y / m_workScale;
 
 	// update tracking area location
 	if (m_trackFace) m_floatTrackArea.move(cvPoint2D32f(xVel, yVel));
+
+	// motion in the orientation of the subject
+	if (m_nativeOrientation) sensorToUpright(xVel, yVel, flip, rotation);
 	
 	//
 	// Provide feedback
@@ -301,80 +342,153 @@ bool VisionPipeline::motionTracker(CIplImage &image, int rotation, float &xVel,
 							trackAreaLocation.y + trackAreaSize.height),
 					image.Width(), image.Height()),
 			cvScalar(255, 0, 0) );
-
-	// draw corners
-	drawCorners(image, m_corners, m_corner_count, cvScalar(0, 255, 0), rotation);
 	 */
 
-	// draw a cross in the center of the tracking area
-	drawCross(image,
-			  rotatePoint(
-					  rotation,
-					  cvPoint(trackAreaLocation.x + trackAreaSize.width/2,
-							  trackAreaLocation.y + trackAreaSize.height/2),
-					  image.Width(), image.Height()),
-			  cvScalar(255, 255, 255), 10, 25);
+	// store the center of the tracking area to draw the feedback later
+	CvPoint2D32f center= cvPoint2D32f(trackAreaLocation.x + trackAreaSize.width/2,
+		trackAreaLocation.y + trackAreaSize.height/2);
+	if (m_nativeOrientation)
+		center= sensorToUpright(center, m_imgCurr.GetSize(), flip, rotation);
+	m_feedbackCenter= rotatePoint(
+			rotation,
+			cvPoint(center.x, center.y),
+			image.Width(), image.Height());
+	m_feedbackValid= true;
+
+	return faceDetected;
+}
+
+/*
+ * Standby processing, only look for the face
+ */
+bool VisionPipeline::faceDetector (int flip, int rotation)
+{
+	bool faceDetected= false;
+
+	CvSize frameSize;
+	CvRect faceRegion;
+	bool newDetection= m_faceDetection.retrieveDetectionInfo(faceDetected, frameSize, faceRegion);
+	if (newDetection && faceDetected) {
+		// track from the next frame, starting on the face
+		m_floatTrackArea.setReferenceSize(frameSize);
+		m_floatTrackArea.set(faceRegion);
+		m_motionEstimator->refresh();
+		m_cpuGovernor.reset();
+		m_cpuGovernor.detectionResult(true);
+		m_standby= false;
+		LOGD("Standby: face detected");
+	}
+
+	{
+	StageTimer timer(m_stats[STAGE_FACE_SUBMIT]);
+	if (m_nativeOrientation) m_faceDetection.submitFrame(m_imgCurr, flip, rotation);
+	else m_faceDetection.submitFrame(m_imgCurr);
+	}
+
+	m_feedbackValid= false;
 
 	return faceDetected;
 }
 
+void VisionPipeline::drawFeedback (CIplImage& image)
+{
+	cv::Point center;
+	if (getFeedback(center)) drawFeedback(image, center);
+}
+
+bool VisionPipeline::getFeedback (cv::Point& center) const
+{
+	if (!m_feedbackValid) return false;
+	center= m_feedbackCenter;
+	return true;
+}
+
+void VisionPipeline::drawFeedback (CIplImage& image, const cv::Point& center)
+{
+	// draw a cross in the center of the tracking area
+	drawCross(image, center, cvScalar(255, 255, 255), 10, 25);
+}
+
 bool VisionPipeline::processImage (CIplImage& image, int flip, int rotation, float& xVel, float& yVel)
+{
+	bool faceDetected= processFrame(image, flip, rotation, xVel, yVel);
+
+	drawFeedback(image);
+
+	return faceDetected;
+}
+
+bool VisionPipeline::processFrame (const CIplImage& image, int flip, int rotation, float& xVel, float& yVel)
 {
 	bool faceDetected= false;
+	unsigned long long start= CTimeUtil::GetNanoCount();
 
 	try {
-		bool bufferReallocation= false;
+		StageTimer totalTimer(m_stats[STAGE_TOTAL]);
 
-		// check and allocate temporal buffer
-		if (!m_tmpImg.Initialized() ||
-				image.Width() != m_tmpImg.Width() ||
-				image.Height() != m_tmpImg.Height()) {
-			m_tmpImg.Create (image.Width(), image.Height(), IPL_DEPTH_8U, "GRAY");
-			bufferReallocation= true;
-		}
+		updateMotionEstimator();
 
-		// manage physical rotation of the camera
-		switch (rotation) {
-		case 0:
-			bufferReallocation|= allocWorkingSpace(image.Width(), image.Height());
-			cvCvtColor(image.ptr(), m_imgCurr.ptr(), CV_BGR2GRAY);
+		bool bufferReallocation= false;
+
+		if (m_nativeOrientation) {
 			/*
-			    This is the same as:
-			    if (flip== VERTICAL) cvFlip(m_imgCurr.ptr(), NULL, 0);
-            	else if (flip== HORIZONTAL) cvFlip(m_imgCurr.ptr(), NULL, 1);
-            */
-			if (flip) cvFlip(m_imgCurr.ptr(), NULL, flip - 1);
-			break;
-		case 90:
-			bufferReallocation|= allocWorkingSpace(image.Height(), image.Width());
-			cvCvtColor(image.ptr(), m_tmpImg.ptr(), CV_BGR2GRAY);
-			if (flip) cvFlip(m_tmpImg.ptr(), NULL, flip - 1);
-			cvTranspose(m_tmpImg.ptr(), m_imgCurr.ptr());
-			cvFlip(m_imgCurr.ptr(), NULL, 1);
-			break;
-		case 180:
+			 * Track in sensor orientation. Only the frames submitted to
+			 * the face detector are rotated (see motionTracker)
+			 */
 			bufferReallocation|= allocWorkingSpace(image.Width(), image.Height());
-			cvCvtColor(image.ptr(), m_imgCurr.ptr(), CV_BGR2GRAY);
-			if (flip) cvFlip(m_imgCurr.ptr(), NULL, flip - 1);
-			cvFlip(m_imgCurr.ptr(), NULL, -1);
-			break;
-		case 270:
-			bufferReallocation|= allocWorkingSpace(image.Height(), image.Width());
-			cvCvtColor(image.ptr(), m_tmpImg.ptr(), CV_BGR2GRAY);
-			if (flip) cvFlip(m_tmpImg.ptr(), NULL, flip - 1);
-			cvTranspose(m_tmpImg.ptr(), m_imgCurr.ptr());
-			cvFlip(m_imgCurr.ptr(), NULL, 0);
-			break;
+			StageTimer timer(m_stats[STAGE_COLOR]);
+			toGray(image.ptr(), m_imgCurr.ptr());
+		}
+		else {
+			// manage physical rotation of the camera
+			CvSize size= rotatedSize(image.GetSize(), rotation);
+			bufferReallocation|= allocWorkingSpace(size.width, size.height);
+
+			const IplImage* gray= image.ptr();
+			if (image.ptr()->nChannels!= 1) {
+				// check and allocate temporal buffer
+				if (!m_tmpImg.Initialized() ||
+						image.Width() != m_tmpImg.Width() ||
+						image.Height() != m_tmpImg.Height()) {
+					m_tmpImg.Reshape (image.Width(), image.Height());
+				}
+
+				StageTimer timer(m_stats[STAGE_COLOR]);
+				toGray(image.ptr(), m_tmpImg.ptr());
+				gray= m_tmpImg.ptr();
+			}
+
+			StageTimer timer(m_stats[STAGE_ROTATION]);
+			rotateImage(gray, m_imgCurr.ptr(), flip, rotation);
 		}
 
 		// process frame. skip if buffer reallocated
-		if (!bufferReallocation) {
-			faceDetected= motionTracker(image, rotation, xVel, yVel);
+		bool standby= m_standby;
+		if (bufferReallocation) {
+			LOGV("Skip frame");
+			m_feedbackValid= false;
 		}
-		else LOGV("Skip frame");
+		else if (standby) faceDetected= faceDetector(flip, rotation);
+		else faceDetected= motionTracker(image, flip, rotation, xVel, yVel);
 
-		// Store current image as previous
+		// Store current image and its working image as previous. No working
+		// image is computed in standby, it will be built from m_imgPrev.
 		m_imgPrev.Swap(&m_imgCurr);
+		cv::swap(m_workPrev, m_workCurr);
+		cv::swap(m_workBufferPrev, m_workBufferCurr);
+		m_workPrevValid= !bufferReallocation && !standby;
+
+		// choose the detector period for the next frames
+		if (standby) {
+			m_faceDetection.setCpuUsage((FaceDetection::ECpuUsage) m_standbyCpuUsage);
+		}
+		else {
+			FaceDetection::ECpuUsage cpuUsage= m_cpuGovernor.update(start,
+				CTimeUtil::GetNanoCount() - start,
+				m_trackingQuality);
+			if (m_cpuUsage== CPU_AUTO) m_faceDetection.setCpuUsage(cpuUsage);
+			else m_faceDetection.setCpuUsage((FaceDetection::ECpuUsage) m_cpuUsage);
+		}
 	}
 	catch (const std::exception& e) {
 		LOGE("Exception: %s\n", e.what());
@@ -384,4 +498,121 @@ bool VisionPipeline::processImage (CIplImage& image, int flip, int rotation, flo
 	return faceDetected;
 }
 
+void VisionPipeline::setNativeOrientation (bool state)
+{
+	if (state!= m_nativeOrientation) {
+		m_nativeOrientation= state;
+		// force buffers reallocation so that tracking starts again
+		m_imgPrev.Free();
+		m_imgCurr.Free();
+	}
+}
+
+void VisionPipeline::setMotionEstimator (int type)
+{
+	if (type< 0 || type>= MotionEstimator::NUM_TYPES) {
+		LOGE("setMotionEstimator: invalid value %d", type);
+		return;
+	}
+
+	// the estimator is switched on the next frame
+	m_estimatorType= type;
+}
+
+void VisionPipeline::setCPUUsage (int value)
+{
+	if (value< CPU_LOWEST || value> CPU_AUTO) {
+		LOGE("setCPUUsage: invalid value %d", value);
+		return;
+	}
+
+	/*
+	 * Might be called from a thread other than the tracking one, so the
+	 * governor is not touched here. It keeps being updated on each frame.
+	 */
+	m_cpuUsage= value;
+	if (value== CPU_AUTO) m_faceDetection.setCpuUsage(m_cpuGovernor.getCpuUsage());
+	else m_faceDetection.setCpuUsage((FaceDetection::ECpuUsage) value);
+}
+
+void VisionPipeline::setStandby (bool state, int cpuUsage)
+{
+	if (cpuUsage< CPU_LOWEST || cpuUsage> CPU_HIGHEST) {
+		LOGE("setStandby: invalid value %d", cpuUsage);
+		return;
+	}
+
+	// applied by the tracking thread on the next frame
+	m_standbyCpuUsage= cpuUsage;
+	m_standby= state;
+}
+
+void VisionPipeline::setPyramidLevels (int levels)
+{
+	// range checked by the estimator, applied on the next frame
+	m_pyramidLevels= levels;
+}
+
+void VisionPipeline::setWorkingSize (int size)
+{
+	if (size> 0 && size< MIN_WORKING_SIZE) size= MIN_WORKING_SIZE;
+	else if (size< 0) size= 0;
+
+	if (size!= m_workingSize) {
+		m_workingSize= size;
+		// force the selection of a new working area
+		m_workRect= cv::Rect();
+	}
+}
+
+int VisionPipeline::getStats (long long* out, int size) const
+{
+	int n= 0;
+
+	for (int stage= 0; stage< NUM_STAGES; stage++) {
+		const LatencyHistogram& h= getStageStats((EStage) stage);
+
+		long long values[NUM_STATS];
+		values[STAT_COUNT]= h.count();
+		values[STAT_P50]= h.percentile(50);
+		values[STAT_P90]= h.percentile(90);
+		values[STAT_P99]= h.percentile(99);
+		values[STAT_MAX]= h.max();
+
+		for (int i= 0; i< NUM_STATS && n< size; i++) out[n++]= values[i];
+	}
+
+	return n;
+}
+
+const LatencyHistogram& VisionPipeline::getStageStats (EStage stage) const
+{
+	const MotionEstimator* estimator= m_motionEstimator;
+
+	switch (stage) {
+	case STAGE_FACE_DETECTION:
+		return m_faceDetection.getDetectionStats();
+	case STAGE_PYRAMID:
+		return estimator->getStats(MotionEstimator::STAGE_PREPARE);
+	case STAGE_FEATURES:
+		return estimator->getStats(MotionEstimator::STAGE_FEATURES);
+	case STAGE_SUBPIX:
+		return estimator->getStats(MotionEstimator::STAGE_SUBPIX);
+	case STAGE_OPTICAL_FLOW:
+		return estimator->getStats(MotionEstimator::STAGE_MATCH);
+	default:
+		return m_stats[stage];
+	}
+}
+
+void VisionPipeline::resetStats ()
+{
+	for (int stage= 0; stage< NUM_STAGES; stage++) m_stats[stage].reset();
+	for (int i= 0; i< MotionEstimator::NUM_TYPES; i++) {
+		MotionEstimator* estimator= m_estimators[i];
+		if (estimator) estimator->resetStats();
+	}
+	m_faceDetection.resetStats();
+}
+
 }
@@ -20,18 +20,39 @@
 #ifndef VISIONPIPELINE_H
 #define VISIONPIPELINE_H
 
+#include <opencv2/core/core.hpp>
+#include <vector>
+
 #include "crvimage.h"
 #include "normroi2.h"
 #include "facedetection.h"
+#include "latencystats.h"
+#include "cpugovernor.h"
+#include "motionestimator.h"
 
 namespace  eviacam {
 
 class VisionPipeline
 {
 public:
+	// When cascadePath is NULL (or empty) the face detector does nothing
+	// until loadCascade is called
 	VisionPipeline (const char* cascadePath);
 	virtual ~VisionPipeline();
 
+	/**
+	* Load the face detector haar-cascade (see FaceDetection::loadCascade).
+	* Can be called from another thread before processing any frame.
+	*
+	* @return false on error
+	*/
+	bool loadCascade (const char* cascadePath) { return m_faceDetection.loadCascade(cascadePath); }
+
+	// Same as loadCascade but from the XML in memory, see FaceDetection::loadCascadeText
+	bool loadCascadeText (const char* text, const char* cachePath) {
+		return m_faceDetection.loadCascadeText(text, cachePath);
+	}
+
 	/**
 	* Entry point to process camera frames
 	*
@@ -49,26 +70,173 @@ public:
 	*/
 	bool processImage (CIplImage& image, int flip, int rotation, float& xVel, float& yVel);
 
+	/**
+	* Same as processImage but the image is not modified (no feedback is drawn). Accepts
+	* either a single channel (e.g. the luma plane of a YUV frame) or a BGR(A) image.
+	* Call drawFeedback afterwards to draw the feedback on a (color) preview image.
+	*/
+	bool processFrame (const CIplImage& image, int flip, int rotation, float& xVel, float& yVel);
+
+	/**
+	* Draw the feedback (centre of the tracking area) for the last processed frame.
+	* Must be called from the thread that processes the frames.
+	*
+	* @param image image on which the feedback is drawn. Should have the same size
+	*   and orientation that the last frame passed to processFrame
+	*/
+	void drawFeedback (CIplImage& image);
+
+	/**
+	* Get the feedback for the last processed frame so that it can be drawn later,
+	* e.g. on another thread. Must be called from the thread that processes the frames.
+	*
+	* @param center centre of the tracking area in preview image coordinates
+	* @return false if there is no feedback to draw
+	*/
+	bool getFeedback (cv::Point& center) const;
+
+	/**
+	* Draw the feedback got with getFeedback. Can be called from any thread.
+	*/
+	static void drawFeedback (CIplImage& image, const cv::Point& center);
+
 	bool getTrackFace () const { return m_trackFace; }
 	void setTrackFace (bool state) { m_trackFace= state; }
 
-	int getCPUUsage ();
+	/**
+	* When enabled (default) frames are tracked in sensor orientation and
+	* only the motion vector (and the frames submitted to the face detector)
+	* are rotated. Otherwise each frame is rotated before tracking.
+	*/
+	bool getNativeOrientation () const { return m_nativeOrientation; }
+	void setNativeOrientation (bool state);
+
+	/**
+	* CPU usage of the face detector. From CPU_LOWEST (longest detection
+	* period) to CPU_HIGHEST (continuous detection), or CPU_AUTO to let the
+	* governor choose it from the tracking headroom, the power state and the
+	* tracking quality (see cpugovernor.h)
+	*
+	* Keep in sync with VisionPipeline.java
+	*/
+	enum ECpuUsage { CPU_LOWEST= FaceDetection::CPU_LOWEST, CPU_LOW, CPU_NORMAL,
+		CPU_HIGH, CPU_HIGHEST, CPU_AUTO };
+	int getCPUUsage () const { return m_cpuUsage; }
 	void setCPUUsage (int value);
 
+	// CPU usage currently used by the face detector (the governor choice in auto mode)
+	int getDetectorCPUUsage () const { return m_faceDetection.getCpuUsage(); }
+
+	// Running on a low battery or in power saving mode (used in auto mode)
+	void setPowerConstrained (bool value) { m_cpuGovernor.setPowerConstrained(value); }
+
+	/**
+	* Standby mode. Only the face detector runs (no motion is estimated and
+	* xVel, yVel are left to 0) with the given CPU usage, from CPU_LOWEST to
+	* CPU_HIGHEST. When a face is found standby is left automatically, the
+	* track area is placed on the face and tracking resumes on the next frame.
+	* Can be called from any thread.
+	*/
+	bool getStandby () const { return m_standby; }
+	void setStandby (bool state, int cpuUsage);
+
+	/**
+	* Motion estimation backend (see MotionEstimator::EType). Can be changed
+	* from any thread, it takes effect on the next frame.
+	*/
+	int getMotionEstimator () const { return m_estimatorType; }
+	void setMotionEstimator (int type);
+
+	/**
+	* Number of pyramid levels (besides the original image) used by the
+	* optical flow (sparse LK estimator). Higher values track faster motion
+	* at a higher cost.
+	*/
+	int getPyramidLevels () const { return m_pyramidLevels; }
+	void setPyramidLevels (int levels);
+
+	/**
+	* Adaptive tracking resolution. When size> 0 the area around the face
+	* is scaled to at most size pixels before tracking, so that the cost
+	* does not depend on the camera resolution or the face size. 0 tracks
+	* at full resolution.
+	*/
+	int getWorkingSize () const { return m_workingSize; }
+	void setWorkingSize (int size);
+
+	// Run face detection synchronously (deterministic results, for offline replays)
+	void setSynchronousDetection (bool state) { m_faceDetection.setSynchronous(state); }
+
+	/*
+	 * Latency statistics
+	 *
+	 * Keep in sync with VisionPipeline.java
+	 */
+	enum EStage { STAGE_TOTAL= 0, STAGE_COLOR, STAGE_ROTATION, STAGE_FEATURES,
+		STAGE_SUBPIX, STAGE_OPTICAL_FLOW, STAGE_FACE_SUBMIT, STAGE_FACE_DETECTION,
+		STAGE_PYRAMID, NUM_STAGES };
+	// STAGE_PYRAMID, STAGE_FEATURES, STAGE_SUBPIX and STAGE_OPTICAL_FLOW report
+	// the prepare, features, subpix and match stages of the current motion
+	// estimator (see MotionEstimator::EStage)
+	enum EStat { STAT_COUNT= 0, STAT_P50, STAT_P90, STAT_P99, STAT_MAX, NUM_STATS };
+
+	/**
+	* Get the latency statistics (in microseconds)
+	*
+	* @param out array where the stats are written. For each stage (see EStage)
+	*   NUM_STATS values are written (see EStat)
+	* @param size size of the out array
+	* @return number of values written
+	*/
+	int getStats (long long* out, int size) const;
+
+	// Clear the latency statistics
+	void resetStats ();
+
 private:
 	// Face detector
 	FaceDetection m_faceDetection;
+	volatile int m_cpuUsage;
+	CpuGovernor m_cpuGovernor;
+
+	// Standby (detection only)
+	volatile bool m_standby;
+	volatile int m_standbyCpuUsage;
 
 	// Track area
 	bool m_trackFace;
+	bool m_nativeOrientation;
 	CIplImage m_imgPrev, m_imgCurr;
 	CIplImage m_tmpImg;
 	NormROI2 m_floatTrackArea;
 
-	// Corner array
-	enum { NUM_CORNERS = 15 };
-	CvPoint2D32f m_corners[NUM_CORNERS];
-	int m_corner_count;
+	// Feedback (centre of the track area in capture coordinates)
+	bool m_feedbackValid;
+	cv::Point m_feedbackCenter;
+
+	// Motion estimators, created on demand and kept until destruction so
+	// that their statistics can be read from other threads. m_estimatorType
+	// is the requested backend, the current one is switched on the tracking
+	// thread when it differs.
+	MotionEstimator* m_estimators[MotionEstimator::NUM_TYPES];
+	MotionEstimator* volatile m_motionEstimator;
+	volatile int m_estimatorType;
+	volatile int m_pyramidLevels;
+	float m_trackingQuality;
+
+	// Working area (frame coordinates) and working images (scaled area)
+	int m_workingSize;
+	cv::Rect m_workRect;
+	float m_workScale;
+	int m_workTrackWidth;
+	cv::Mat m_workPrev, m_workCurr;
+	cv::Mat m_workBufferPrev, m_workBufferCurr;	// preallocated storage
+	bool m_workPrevValid;	// m_workPrev is the working image of the previous frame
+
+	// Latency histograms (STAGE_FACE_DETECTION is kept by the face detector,
+	// STAGE_PYRAMID, STAGE_FEATURES, STAGE_SUBPIX and STAGE_OPTICAL_FLOW
+	// by the motion estimator)
+	LatencyHistogram m_stats[NUM_STAGES];
 	
 	//
 	// Private methods
@@ -76,7 +244,12 @@ private:
 
 	// return true if buffers reallocated
 	bool allocWorkingSpace (int width, int height);
-	bool motionTracker(CIplImage &image, int rotation, float &xVel, float &yVel);
+	void toWorkingImage (const CIplImage& frame, cv::Mat& buffer, cv::Mat& dst) const;
+	bool prepareWorkingImages (const CvRect& trackArea);
+	void updateMotionEstimator ();
+	const LatencyHistogram& getStageStats (EStage stage) const;
+	bool motionTracker(const CIplImage &image, int flip, int rotation, float &xVel, float &yVel);
+	bool faceDetector (int flip, int rotation);
 };
 
 }
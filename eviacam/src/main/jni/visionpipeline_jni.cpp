@@ -24,54 +24,245 @@
 #include "visionpipeline.h"
 #include "crvimage.h"
 
-extern "C" {
+#include <vector>
+
+/*
+ * Native pipelines are referenced from Java by an opaque handle (the address
+ * of the object), so no global state is kept and several pipelines can coexist.
+ * Results are returned through primitive arrays, which avoids looking up
+ * classes or fields from native code.
+ */
+static inline
+eviacam::VisionPipeline* getPipeline (jlong handle)
+{
+	return reinterpret_cast<eviacam::VisionPipeline*>(handle);
+}
 
-eviacam::VisionPipeline* g_visionPipeline= NULL;
+static
+void setMotion (JNIEnv* env, jfloatArray jMotion, float xVel, float yVel)
+{
+	if (jMotion== NULL || env->GetArrayLength(jMotion)< 2) {
+		LOGE("invalid motion array");
+		return;
+	}
+
+	jfloat motion[2]= { xVel, yVel };
+	env->SetFloatArrayRegion(jMotion, 0, 2, motion);
+}
+
+extern "C" {
 
-JNIEXPORT void JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_init
-	(JNIEnv* env, jobject, jstring jCascadeName)
+JNIEXPORT jlong JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_nativeInit
+	(JNIEnv* env, jclass, jstring jCascadeName)
 {
 	LOGD ("init called");
 
-	assert (g_visionPipeline== NULL);
+	const char* cascadeName= env->GetStringUTFChars(jCascadeName, 0);
+
+	eviacam::VisionPipeline* pipeline= new eviacam::VisionPipeline(cascadeName);
+
+	env->ReleaseStringUTFChars(jCascadeName, cascadeName);
+
+	return reinterpret_cast<jlong>(pipeline);
+}
+
+JNIEXPORT jboolean JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_nativeLoadCascade
+	(JNIEnv* env, jclass, jlong handle, jstring jCascadeName)
+{
+	eviacam::VisionPipeline* pipeline= getPipeline(handle);
+	if (!pipeline) return false;
 
 	const char* cascadeName= env->GetStringUTFChars(jCascadeName, 0);
 
-	g_visionPipeline= new eviacam::VisionPipeline(cascadeName);
+	jboolean result= pipeline->loadCascade(cascadeName);
 
 	env->ReleaseStringUTFChars(jCascadeName, cascadeName);
+
+	return result;
 }
 
-JNIEXPORT void JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_cleanup
-	(JNIEnv*, jobject)
+JNIEXPORT jboolean JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_nativeLoadCascadeText
+	(JNIEnv* env, jclass, jlong handle, jbyteArray jText, jstring jCachePath)
 {
-	LOGD ("cleanup called");
+	eviacam::VisionPipeline* pipeline= getPipeline(handle);
+	if (!pipeline || !jText) return false;
 
-	assert (g_visionPipeline);
+	// the parser needs a NUL terminated string
+	jsize length= env->GetArrayLength(jText);
+	std::vector<char> text(length + 1);
+	env->GetByteArrayRegion(jText, 0, length, reinterpret_cast<jbyte*>(&text[0]));
+	text[length]= 0;
 
-	delete g_visionPipeline;
+	const char* cachePath= (jCachePath? env->GetStringUTFChars(jCachePath, 0) : NULL);
 
-	g_visionPipeline= NULL;
+	jboolean result= pipeline->loadCascadeText(&text[0], cachePath);
+
+	if (cachePath) env->ReleaseStringUTFChars(jCachePath, cachePath);
+
+	return result;
 }
 
-JNIEXPORT jboolean JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_processFrame
-	(JNIEnv* env, jobject, jlong addrFrame, jint flip, jint rotation, jobject jPoint)
+JNIEXPORT void JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_nativeCleanup
+	(JNIEnv*, jclass, jlong handle)
 {
-	assert (g_visionPipeline);
+	LOGD ("cleanup called");
+
+	delete getPipeline(handle);
+}
+
+JNIEXPORT jboolean JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_nativeProcessGrayFrame
+	(JNIEnv* env, jclass, jlong handle, jlong addrFrame, jint flip, jint rotation,
+	 jfloatArray jMotion)
+{
+	eviacam::VisionPipeline* pipeline= getPipeline(handle);
+	if (!pipeline) return false;
 
 	float xVel= 0, yVel= 0;
 
+	/* The header keeps the step of the matrix, so that submatrices are not copied */
 	IplImage iplimg = *(cv::Mat*) addrFrame;
 	CIplImage frame(&iplimg);
-	jboolean result= g_visionPipeline->processImage(frame, flip, rotation, xVel, yVel);
+	jboolean result= pipeline->processFrame(frame, flip, rotation, xVel, yVel);
 
-	jclass pointClass = env->GetObjectClass(jPoint);
-	jfieldID jXVelId = env->GetFieldID(pointClass, "x", "F");
-	jfieldID jYVelId = env->GetFieldID(pointClass, "y", "F");
-	env->SetFloatField(jPoint, jXVelId, xVel);
-	env->SetFloatField(jPoint, jYVelId, yVel);
+	setMotion(env, jMotion, xVel, yVel);
 
 	return result;
 }
 
+JNIEXPORT jboolean JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_nativeProcessLumaBuffer
+	(JNIEnv* env, jclass, jlong handle, jobject jLuma, jint width, jint height, jint rowStride,
+	 jint flip, jint rotation, jfloatArray jMotion)
+{
+	eviacam::VisionPipeline* pipeline= getPipeline(handle);
+	if (!pipeline) return false;
+
+	float xVel= 0, yVel= 0;
+	jboolean result= false;
+
+	/* The buffer is read in place, no copy is made */
+	void* data= env->GetDirectBufferAddress(jLuma);
+	jlong capacity= env->GetDirectBufferCapacity(jLuma);
+	if (data== NULL || width<= 0 || height<= 0 || rowStride< width ||
+		capacity< (jlong) rowStride * (height - 1) + width) {
+		LOGE("processLumaBuffer: invalid buffer");
+	}
+	else {
+		IplImage iplimg;
+		cvInitImageHeader(&iplimg, cvSize(width, height), IPL_DEPTH_8U, 1);
+		cvSetData(&iplimg, data, rowStride);
+		CIplImage frame(&iplimg);
+		result= pipeline->processFrame(frame, flip, rotation, xVel, yVel);
+	}
+
+	setMotion(env, jMotion, xVel, yVel);
+
+	return result;
+}
+
+JNIEXPORT void JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_nativeDrawFeedback
+	(JNIEnv*, jclass, jlong handle, jlong addrFrame)
+{
+	eviacam::VisionPipeline* pipeline= getPipeline(handle);
+	if (!pipeline) return;
+
+	IplImage iplimg = *(cv::Mat*) addrFrame;
+	CIplImage frame(&iplimg);
+	pipeline->drawFeedback(frame);
+}
+
+JNIEXPORT jboolean JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_nativeGetFeedback
+	(JNIEnv* env, jclass, jlong handle, jintArray jCenter)
+{
+	eviacam::VisionPipeline* pipeline= getPipeline(handle);
+	if (!pipeline || !jCenter || env->GetArrayLength(jCenter)< 2) return false;
+
+	cv::Point center;
+	if (!pipeline->getFeedback(center)) return false;
+
+	jint values[2]= { center.x, center.y };
+	env->SetIntArrayRegion(jCenter, 0, 2, values);
+
+	return true;
+}
+
+JNIEXPORT void JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_nativeDrawFeedbackAt
+	(JNIEnv*, jclass, jlong addrFrame, jint x, jint y)
+{
+	IplImage iplimg = *(cv::Mat*) addrFrame;
+	CIplImage frame(&iplimg);
+	eviacam::VisionPipeline::drawFeedback(frame, cv::Point(x, y));
+}
+
+JNIEXPORT jint JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_nativeGetStats
+	(JNIEnv* env, jclass, jlong handle, jlongArray out)
+{
+	eviacam::VisionPipeline* pipeline= getPipeline(handle);
+	if (!pipeline || !out) return 0;
+
+	enum { SIZE= eviacam::VisionPipeline::NUM_STAGES * eviacam::VisionPipeline::NUM_STATS };
+
+	long long values[SIZE];
+	int count= pipeline->getStats(values, SIZE);
+
+	jsize length= env->GetArrayLength(out);
+	if (count> length) count= length;
+
+	jlong buffer[SIZE];
+	for (int i= 0; i< count; i++) buffer[i]= values[i];
+	env->SetLongArrayRegion(out, 0, count, buffer);
+
+	return count;
+}
+
+JNIEXPORT void JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_nativeResetStats
+	(JNIEnv*, jclass, jlong handle)
+{
+	eviacam::VisionPipeline* pipeline= getPipeline(handle);
+	if (pipeline) pipeline->resetStats();
+}
+
+JNIEXPORT void JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_nativeSetCpuUsage
+	(JNIEnv*, jclass, jlong handle, jint value)
+{
+	eviacam::VisionPipeline* pipeline= getPipeline(handle);
+	if (pipeline) pipeline->setCPUUsage(value);
+}
+
+JNIEXPORT jint JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_nativeGetCpuUsage
+	(JNIEnv*, jclass, jlong handle, jboolean detector)
+{
+	eviacam::VisionPipeline* pipeline= getPipeline(handle);
+	if (!pipeline) return eviacam::VisionPipeline::CPU_NORMAL;
+
+	return (detector? pipeline->getDetectorCPUUsage() : pipeline->getCPUUsage());
+}
+
+JNIEXPORT void JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_nativeSetPowerConstrained
+	(JNIEnv*, jclass, jlong handle, jboolean value)
+{
+	eviacam::VisionPipeline* pipeline= getPipeline(handle);
+	if (pipeline) pipeline->setPowerConstrained(value);
+}
+
+JNIEXPORT void JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_nativeSetStandby
+	(JNIEnv*, jclass, jlong handle, jboolean state, jint cpuUsage)
+{
+	eviacam::VisionPipeline* pipeline= getPipeline(handle);
+	if (pipeline) pipeline->setStandby(state, cpuUsage);
+}
+
+JNIEXPORT jboolean JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_nativeGetStandby
+	(JNIEnv*, jclass, jlong handle)
+{
+	eviacam::VisionPipeline* pipeline= getPipeline(handle);
+	return (pipeline? pipeline->getStandby() : false);
+}
+
+JNIEXPORT void JNICALL Java_com_crea_1si_eviacam_common_VisionPipeline_nativeSetMotionEstimator
+	(JNIEnv*, jclass, jlong handle, jint type)
+{
+	eviacam::VisionPipeline* pipeline= getPipeline(handle);
+	if (pipeline) pipeline->setMotionEstimator(type);
+}
+
 } // extern "C"